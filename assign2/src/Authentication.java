@@ -1,36 +1,34 @@
 import java.io.*;
-import java.util.Map;
-import java.util.UUID;
+import java.security.SecureRandom;
+import java.util.concurrent.CompletableFuture;
 
 public class Authentication {
-    // username -> token
-    private final ConcurrentHashMap<String, String> tokens = new ConcurrentHashMap<>();
+    // token <-> username <-> connection
+    private final SessionRegistry sessions = new SessionRegistry();
 
     //username -> rank
-    private final ConcurrentHashMap<String, Integer> ranks = new ConcurrentHashMap<>();
-    private final String usersFileName;
+    private final RankMap ranks;
+    private final UserStore users;
 
-    private final String rankFileName;
+    private final RankJournal rankJournal;
 
-    public Map<String, String> getTokens() {
-        return tokens;
+    public SessionRegistry getSessions() {
+        return sessions;
     }
 
     /**
      * Constructs an Authentication object with the specified file names for tokens, users, and ranks.
      *
      * @param usersFileName  The file name for users.
-     * @param rankFileName   The file name for ranks.
+     * @param rankFileName   The legacy text file name for ranks, imported on the first run. The rank snapshot and journals are kept next to it.
      * @throws IOException  If an error occurs while loading the tokens or ranks from files.
      */
     public Authentication(String usersFileName, String rankFileName) throws IOException {
-        this.usersFileName = usersFileName;
-        this.rankFileName = rankFileName;
-
         createFileIfNotExists(usersFileName);
-        createFileIfNotExists(rankFileName);
 
-        loadRanksFromFile();
+        users = new UserStore(usersFileName);
+        rankJournal = new RankJournal(rankFileName.replaceFirst("\\.txt$", ""), rankFileName);
+        ranks = rankJournal.getRanks();
     }
 
     /**
@@ -64,55 +62,32 @@ public class Authentication {
      *
      * @param username  The username.
      * @param password  The password.
+     * @param connection The connection the user is logging in from.
      * @return The access token if login is successful, or an error message if login fails.
-     * @throws IOException  If an error occurs while reading the user file.
-     */
-    public String login(String username, String password) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(usersFileName));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(":");
-            if (parts[0].equals(username)) {
-                if (parts[1].equals(password)) {
-                    return this.createToken(username);
-                } else {
-                    reader.close();
-                    return "Error: Incorrect password";
-                }
-            }
-        }
-        return "Error: User not found!";
-    }
-
-    /**
-     * Loads and stores the ranks from the ranks file into a hashmap.
-     *
-     * @throws IOException  If an error occurs while reading the ranks file.
-     */
-    private void loadRanksFromFile() throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(rankFileName));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(":");
-            if (parts.length == 2) {
-                ranks.put(parts[0], Integer.valueOf(parts[1]));
-            }
-        }
-        reader.close();
+     */
+    public String login(String username, String password, Connection connection) {
+        String stored = users.getPassword(username);
+        if (stored == null)
+            return "Error: User not found!";
+        if (!stored.equals(password))
+            return "Error: Incorrect password";
+        return this.createToken(username, connection);
     }
 
     /**
-     * Creates an access token for the specified username.
+     * Creates an access token for the specified username and opens its session.
      *
      * @param username  The username.
-     * @return The generated access token.
-     * @throws IOException  If an error occurs while saving the tokens or ranks to files.
+     * @param connection The connection the user logged in from.
+     * @return The generated access token, or an error message if the user is already logged in.
      */
-    public String createToken(String username) throws IOException {
-        String token = UUID.randomUUID().toString();
-        tokens.put(username, token);
-        saveRanksToFile();
-        return token;
+    public String createToken(String username, Connection connection) {
+        SecureRandom random = Tokens.generator();
+        long high = random.nextLong();
+        long low = random.nextLong();
+        if (sessions.open(username, high, low, connection) == null)
+            return "Error: You are already logged in!";
+        return Tokens.encode(high, low);
     }
 
     /**
@@ -122,7 +97,8 @@ public class Authentication {
      * @return The access token associated with the username.
      */
     public String getToken(String username) {
-        return tokens.get(username);
+        SessionRegistry.Session session = sessions.byUsername(username);
+        return session == null ? null : session.getToken();
     }
 
     /**
@@ -132,103 +108,106 @@ public class Authentication {
      * @return The username associated with the access token, or null if the token is invalid.
      */
     public String getUserName(String token) {
-        for (String key : tokens.keySet()) {
-            if (tokens.get(key).equals(token)) {
-                return key;
-            }
-        }
-        return null;
+        SessionRegistry.Session session = sessions.byToken(token);
+        return session == null ? null : session.getUsername();
     }
 
     /**
-     * Clears all tokens and saves the changes to files.
-     *
-     * @throws IOException  If an error occurs while saving the tokens or ranks to files.
+     * Clears all tokens.
      */
-    public void clearTokens() throws IOException{
-        tokens.clear();
-        saveRanksToFile();
+    public void clearTokens() {
+        sessions.clear();
     }
 
     /**
-     * Invalidates the specified access token by removing it from the tokens map and saving the changes to files.
+     * Invalidates the specified access token by closing its session.
      *
      * @param token  The access token to invalidate.
-     * @throws IOException  If an error occurs while saving the tokens or ranks to files.
-     */
-    public void invalidateToken(String token) throws IOException {
-        String username = null;
-        for (String key : tokens.keySet()) {
-            if (tokens.get(key).equals(token)) {
-                username = key;
-                break;
-            }
-        }
-        if (username != null) {
-            tokens.remove(username);
-            saveRanksToFile();
-        }
+     */
+    public void invalidateToken(String token) {
+        sessions.closeByToken(token);
+    }
+
+    /**
+     * Logs out the user with the specified access token by closing its session.
+     *
+     * @param token  The access token.
+     * @return The username of the user that logged out, or null if the token is invalid.
+     */
+    public String logout(String token) {
+        SessionRegistry.Session session = sessions.closeByToken(token);
+        return session == null ? null : session.getUsername();
+    }
+
+    /**
+     * Invalidates the access token of the user logged in on the specified connection, if any.
+     *
+     * @param connection  The connection.
+     */
+    public void invalidateSession(Connection connection) {
+        sessions.closeByConnection(connection);
     }
 
     /**
      * Retrieves the rank of the specified username.
      *
      * @param username  The username.
-     * @return The rank of the username.
+     * @return The rank of the username, or 0 if the user has no rank.
      */
-    public Integer getRank(String username) {
-        return ranks.get(username);
+    public int getRank(String username) {
+        return ranks.get(username, 0);
     }
 
     /**
-     * Updates the rank of the specified username by incrementing it with the given value.
+     * Atomically updates the rank of the specified username by incrementing it with the given value.
+     * The change is appended to the rank journal in the background.
      *
      * @param username  The username.
      * @param increment The value to increment the rank by.
      */
-    public void updateRank(String username, Integer increment) {
-        Integer lastVal = ranks.get(username);
-        ranks.replace(username, lastVal + increment);
+    public void updateRank(String username, int increment) {
+        rankJournal.add(username, increment);
     }
 
     /**
      * Registers a new user with the specified username and password.
+     * The access token is only created once both the new user and its starting rank are saved, so a client is never told about an account that a crash could lose.
      *
      * @param username  The username of the new user.
      * @param password  The password of the new user.
-     * @return The access token generated for the new user in case of success, or an error message otherwise.
-     * @throws IOException  If an error occurs while saving the user or tokens to files.
-     */
-    public String registerUser(String username, String password) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(usersFileName));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(":");
-            if (parts.length == 2 && parts[0].equals(username)) {
-                reader.close();
-                return "Error: Username already exists.";
-            }
-        }
-        reader.close();
-        BufferedWriter writer = new BufferedWriter(new FileWriter(usersFileName, true));
-        writer.write(username + ":" + password + "\n");
-        writer.close();
-
-        ranks.put(username, 500); //Starting rank
+     * @param connection The connection the user is registering from.
+     * @return A future with the access token generated for the new user in case of success, or an error message otherwise.
+     */
+    public CompletableFuture<String> registerUser(String username, String password, Connection connection) {
+        CompletableFuture<Boolean> saved = users.register(username, password);
+        if (saved.isDone() && !saved.isCompletedExceptionally() && !saved.join())
+            return CompletableFuture.completedFuture("Error: Username already exists.");
+
+        rankJournal.put(username, 500); //Starting rank
+        CompletableFuture<Void> rankSaved = new CompletableFuture<>();
+        rankJournal.whenDurable(() -> rankSaved.complete(null));
+
+        return saved.thenCombine(rankSaved, (registered, rank) -> registered).handle((registered, error) -> {
+            if (error != null)
+                return "Error: Unable to save your account, please try again!";
+            return this.createToken(username, connection);
+        });
+    }
 
-        return this.createToken(username);
+    /**
+     Runs an action once all the rank changes made so far are saved.
+     @param action The action to run.
+     */
+    public void whenRanksSaved(Runnable action) {
+        rankJournal.whenDurable(action);
     }
 
     /**
-     Saves the ranks map to the ranks file.
-     @throws IOException If an error occurs while writing to the ranks file.
+     Writes the pending registrations and rank changes to their files and closes them.
      */
-    private void saveRanksToFile() throws IOException {
-        BufferedWriter writer = new BufferedWriter(new FileWriter(rankFileName));
-        for (String key : ranks.keySet()) {
-            writer.write(key + ":" + ranks.get(key) + "\n");
-        }
-        writer.close();
+    public void close() {
+        users.close();
+        rankJournal.close();
     }
 
     /**
@@ -237,6 +216,6 @@ public class Authentication {
      @return true if the username is logged in, false otherwise.
      */
     public boolean isLoggedIn(String username) {
-        return tokens.get(username) != null;
+        return sessions.byUsername(username) != null;
     }
 }
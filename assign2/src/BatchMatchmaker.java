@@ -0,0 +1,167 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ The BatchMatchmaker class forms whole games out of a snapshot of the matchmaking queue, instead of placing the players one at a time.
+ The players are sorted by rank, and a window of Game.getNumPlayers() consecutive players slides over them:
+ whenever the ranks in the window are close enough, the window becomes a game and the next window starts after it.
+ The allowed rank spread grows with the wait of the longest-waiting player of the window, so nobody waits forever.
+ When there are more games than free lobbies, the games whose players waited the longest are kept.
+ It also keeps the statistics of the games that were actually started (see record()): the matches per second over the last RATE_WINDOW milliseconds
+ and the average rank spread.
+ It is not thread-safe; the server only uses it while holding the matchmaking lock.
+ */
+public class BatchMatchmaker {
+    private static final long RATE_WINDOW = 60000;
+
+    private final int groupSize;
+    private final int baseSpread;
+    private final int relaxMmr;
+    private final int relaxAfterTime;
+    private final long startedAt = System.currentTimeMillis();
+    private long matches = 0;
+    private long spreadSum = 0;
+    // when each recent match was recorded, oldest first, for the matches per second
+    private final ArrayDeque<Long> recent = new ArrayDeque<>();
+
+    /**
+     The Group class is a game formed by the matchmaker: its players and the range of their ranks.
+     */
+    public static class Group {
+        private final String[] usernames;
+        private final int rankLow;
+        private final int rankHigh;
+        private final long longestWait;
+
+        private Group(String[] usernames, int rankLow, int rankHigh, long longestWait) {
+            this.usernames = usernames;
+            this.rankLow = rankLow;
+            this.rankHigh = rankHigh;
+            this.longestWait = longestWait;
+        }
+
+        public String[] getUsernames() {
+            return usernames;
+        }
+
+        public int getRankLow() {
+            return rankLow;
+        }
+
+        public int getRankHigh() {
+            return rankHigh;
+        }
+
+        public int getSpread() {
+            return rankHigh - rankLow;
+        }
+    }
+
+    /**
+     Constructs a BatchMatchmaker object.
+     @param groupSize The number of players of a game.
+     @param baseSpread The rank spread allowed in a game whose players have not waited.
+     @param relaxMmr The number of rank points the allowed spread grows by every relaxAfterTime milliseconds of waiting.
+     @param relaxAfterTime The waiting time, in milliseconds, after which the allowed spread grows by relaxMmr.
+     */
+    public BatchMatchmaker(int groupSize, int baseSpread, int relaxMmr, int relaxAfterTime) {
+        this.groupSize = groupSize;
+        this.baseSpread = baseSpread;
+        this.relaxMmr = relaxMmr;
+        this.relaxAfterTime = relaxAfterTime;
+    }
+
+    /**
+     Forms games out of the queued players. The games are not counted in the statistics until they are recorded.
+     @param usernames The usernames of the queued players.
+     @param ranks The ranks of the players (same order as usernames).
+     @param queuedAt When each player joined the queue, in milliseconds (same order as usernames).
+     @param count The number of players in the arrays.
+     @param maxGroups The maximum number of games to form (usually the number of free lobbies).
+     @param now The current time, in milliseconds.
+     @return The games, the ones whose players waited the longest first.
+     */
+    public List<Group> match(String[] usernames, int[] ranks, long[] queuedAt, int count, int maxGroups, long now) {
+        List<Group> groups = new ArrayList<>();
+        if (maxGroups <= 0 || count < groupSize)
+            return groups;
+
+        // rank in the high half, position in the low half: a primitive sort orders the players by rank
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = ((long) ranks[i] << 32) | i;
+        Arrays.sort(keys);
+
+        int i = 0;
+        while (i + groupSize <= count) {
+            int low = (int) (keys[i] >> 32);
+            int high = (int) (keys[i + groupSize - 1] >> 32);
+            long longestWait = 0;
+            for (int j = i; j < i + groupSize; j++)
+                longestWait = Math.max(longestWait, now - queuedAt[(int) keys[j]]);
+            long allowed = baseSpread + relaxMmr * longestWait / relaxAfterTime;
+            if ((long) high - low <= allowed) {
+                String[] members = new String[groupSize];
+                for (int j = 0; j < groupSize; j++)
+                    members[j] = usernames[(int) keys[i + j]];
+                groups.add(new Group(members, low, high, longestWait));
+                i += groupSize;
+            } else {
+                i++;
+            }
+        }
+
+        if (groups.size() > maxGroups) {
+            groups.sort(Comparator.comparingLong((Group group) -> group.longestWait).reversed());
+            groups = new ArrayList<>(groups.subList(0, maxGroups));
+        }
+        return groups;
+    }
+
+    /**
+     Counts a game formed by match() in the statistics, once its players have been seated.
+     @param group The game.
+     @param now The current time, in milliseconds.
+     */
+    public void record(Group group, long now) {
+        matches++;
+        spreadSum += group.getSpread();
+        recent.addLast(now);
+        expire(now);
+    }
+
+    /**
+     Gets the number of games recorded so far.
+     @return The number of games.
+     */
+    public long getMatches() {
+        return matches;
+    }
+
+    /**
+     Gets the number of games recorded per second over the last RATE_WINDOW milliseconds (or since the matchmaker was created, if that is shorter).
+     @param now The current time, in milliseconds.
+     @return The matches per second.
+     */
+    public double getMatchesPerSecond(long now) {
+        expire(now);
+        long window = Math.min(RATE_WINDOW, now - startedAt);
+        return window > 0 ? recent.size() * 1000.0 / window : 0;
+    }
+
+    /**
+     Gets the average rank spread (highest minus lowest rank) of the games recorded so far.
+     @return The average spread, or 0 if no game was formed.
+     */
+    public double getAverageSpread() {
+        return matches == 0 ? 0 : (double) spreadSum / matches;
+    }
+
+    private void expire(long now) {
+        while (!recent.isEmpty() && recent.peekFirst() <= now - RATE_WINDOW)
+            recent.removeFirst();
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ The BloomFilter class is a fixed-size Bloom filter of strings: a set that may answer "maybe present" for a string that was never added,
+ but never answers "absent" for a string that was added.
+ It is sized for a number of strings and a false positive rate; adding more strings than that raises the false positive rate.
+ Lookups are lock-free and strings can be added concurrently (the bits are set with a CAS).
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+    private final int capacity;
+
+    /**
+     Constructs an empty BloomFilter object.
+     @param capacity The number of strings the filter is sized for.
+     @param falsePositiveRate The expected false positive rate once the filter holds capacity strings (e.g. 0.01).
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        this.capacity = Math.max(capacity, 1);
+        long optimalBits = (long) Math.ceil(-this.capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (optimalBits + 63) / 64);
+        this.bits = new AtomicLongArray(words);
+        this.numBits = words * 64L;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / this.capacity * Math.log(2)));
+    }
+
+    /**
+     Gets the number of strings the filter was sized for.
+     @return The capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     Adds a string to the filter.
+     @param value The string to add.
+     */
+    public void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % numBits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+            }
+        }
+    }
+
+    /**
+     Checks if a string may have been added to the filter.
+     @param value The string to check.
+     @return false if the string was definitely never added, true if it may have been.
+     */
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % numBits;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     Computes a 64-bit hash of the string (FNV-1a over its chars, then a MurmurHash3 finalizer),
+     which is split into the two hashes combined by double hashing.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,112 @@
+import java.nio.ByteBuffer;
+
+/**
+ The BufferPool class hands out fixed-size direct ByteBuffers carved from large slabs of direct memory.
+ Connections lease their read buffer from the pool and outgoing frames are encoded into leased buffers, which are returned once written,
+ so that the steady-state read/write path does not allocate.
+ When all the slabs are in use the pool allocates a new one, up to a maximum; after that it falls back to plain heap buffers, which are not pooled.
+ Every reactor has its own pool, which is confined to the reactor's thread: chunks are only leased and given back by that thread, so the pool needs no lock.
+ The lease state travels with the chunk: a chunk is given back with a zero limit, which no leased chunk has (frames hold at least their header
+ and accumulation buffers are kept open up to their capacity), so a chunk released twice is reported and ignored instead of being handed out to two owners.
+ */
+public class BufferPool {
+    private final int chunkSize;
+    private final int chunksPerSlab;
+    private final int maxSlabs;
+    private int slabs = 0;
+    private Thread owner;
+
+    // free chunks, used as a stack so that recently used (cache-warm) chunks are handed out first
+    private ByteBuffer[] free;
+    private int top = 0;
+
+    /**
+     Constructs a BufferPool object.
+     @param chunkSize The size of every buffer handed out by the pool.
+     @param chunksPerSlab The number of buffers carved from each slab.
+     @param maxSlabs The maximum number of slabs the pool allocates.
+     */
+    public BufferPool(int chunkSize, int chunksPerSlab, int maxSlabs) {
+        this.chunkSize = chunkSize;
+        this.chunksPerSlab = chunksPerSlab;
+        this.maxSlabs = maxSlabs;
+        this.free = new ByteBuffer[chunksPerSlab];
+    }
+
+    /**
+     Confines the pool to a thread. From then on, only that thread may lease or give back chunks.
+     @param owner The thread that uses the pool (the reactor thread).
+     */
+    public void setOwner(Thread owner) {
+        this.owner = owner;
+    }
+
+    /**
+     Gets the size of the buffers handed out by the pool.
+     @return The chunk size, in bytes.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     Leases a buffer from the pool. The buffer is cleared and has exactly getChunkSize() bytes of capacity. Must be called by the owner thread.
+     @return A buffer that must be given back with release() when it is no longer used.
+     */
+    public ByteBuffer acquire() {
+        checkOwner();
+        if (top == 0 && !allocateSlab())
+            return ByteBuffer.allocate(chunkSize);
+        ByteBuffer buffer = free[--top];
+        free[top] = null;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     Gives a leased buffer back to the pool. Buffers that were not handed out by the pool (heap or read-only buffers) are ignored,
+     so callers can release every buffer they were given without checking where it came from. A buffer that is not leased (released twice) is reported and ignored.
+     Pooled buffers must be given back by the owner thread.
+     @param buffer The buffer to give back. It must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!isPooled(buffer))
+            return;
+        checkOwner();
+        if (buffer.limit() == 0) {
+            System.out.println("Error: a buffer was released twice, ignoring it!");
+            return;
+        }
+        buffer.limit(0);
+        free[top++] = buffer;
+    }
+
+    /**
+     Checks if a buffer was handed out by the pool.
+     @param buffer The buffer to check.
+     @return true if the buffer is a pooled chunk, false otherwise.
+     */
+    public boolean isPooled(ByteBuffer buffer) {
+        return buffer.isDirect() && !buffer.isReadOnly() && buffer.capacity() == chunkSize;
+    }
+
+    private void checkOwner() {
+        if (owner != null && Thread.currentThread() != owner)
+            throw new IllegalStateException("BufferPool used by " + Thread.currentThread().getName() + " instead of " + owner.getName());
+    }
+
+    private boolean allocateSlab() {
+        if (slabs == maxSlabs)
+            return false;
+        ByteBuffer slab = ByteBuffer.allocateDirect(chunkSize * chunksPerSlab);
+        slabs++;
+        if (free.length < slabs * chunksPerSlab)
+            free = new ByteBuffer[slabs * chunksPerSlab];
+        for (int i = 0; i < chunksPerSlab; i++) {
+            slab.limit((i + 1) * chunkSize);
+            slab.position(i * chunkSize);
+            free[top++] = slab.slice().limit(0);
+        }
+        return true;
+    }
+}
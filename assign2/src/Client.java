@@ -11,6 +11,7 @@ import static java.lang.System.exit;
 /**
  * The Client class represents a client that connects to a server and communicates with it using SocketChannel.
  * It allows the user to send messages to the server and receive responses.
+ * Messages are exchanged as length-prefixed frames (see FrameCodec), in both directions.
  */
 public class Client {
     public static void main(String[] args) throws IOException, InterruptedException {
@@ -30,7 +31,7 @@ public class Client {
 
                 socketChannel.configureBlocking(false);
                 Scanner scanner = new Scanner(System.in);
-                ByteBuffer buffer = ByteBuffer.allocate(4096);
+                FrameCodec codec = new FrameCodec(4096);
                 String token = "";
                 ConcurrentList<String> inputQueue = new ConcurrentList<>();
                 Thread input_thread = new Thread(() -> {
@@ -53,8 +54,8 @@ public class Client {
                     }
                 });
                 input_thread.start();
+                session:
                 do {
-                    buffer.clear();
                     String message = "";
                     if (!inputQueue.isEmpty()) {
                         message = inputQueue.get(0);
@@ -65,23 +66,30 @@ public class Client {
                         play_again[0] = false;
                     }
                     assert message != null;
-                    buffer.put(message.getBytes());
-                    buffer.flip();
-                    socketChannel.write(buffer);
-                    buffer.clear();
+                    if (!message.isEmpty()) {
+                        try {
+                            writeFully(socketChannel, FrameCodec.encode(message));
+                        } catch (IllegalArgumentException e) {
+                            System.out.println("Error: " + e.getMessage());
+                            continue;
+                        }
+                    }
                     if (message.startsWith("login")) {
                         tmp_login_command = message;
                     } else if (message.startsWith("register")) {
                         tmp_login_command = message.replace("register", "login");
                     }
                     if (socketChannel.isConnected()) {
-                        buffer.put(0, new byte[buffer.limit()]);
-                        socketChannel.read(buffer);
-                        String tmp = new String(buffer.array()).trim();
-                        if (!tmp.isBlank()) {
+                        if (codec.read(socketChannel) == -1)
+                            break;
+                        String tmp;
+                        while ((tmp = codec.nextFrame()) != null) {
+                            tmp = tmp.trim();
+                            if (tmp.isBlank())
+                                continue;
                             if (tmp.contains("DISCONNECT")) {
                                 System.out.println(tmp.substring(0, tmp.indexOf("DISCONNECT")));
-                                break;
+                                break session;
                             }
                             if (tmp.contains("Welcome to our server")) {
                                 if (showWelcomeMessage)
@@ -97,13 +105,9 @@ public class Client {
                                     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                                         try {
                                             if (socketChannel.isOpen()) {
-                                                buffer.clear();
-                                                buffer.put(new byte[4096]);
-                                                buffer.put(0, ("logout " + tok).getBytes());
-                                                buffer.flip();
-                                                socketChannel.write(buffer);
-                                                buffer.clear();
-                                                socketChannel.read(buffer);
+                                                socketChannel.configureBlocking(true);
+                                                writeFully(socketChannel, FrameCodec.encode("logout " + tok));
+                                                readFrame(socketChannel, new FrameCodec(4096));
                                                 socketChannel.close();
                                             }
                                         } catch (IOException e) {
@@ -116,14 +120,9 @@ public class Client {
                     }
                 }
                 while (true);
-                buffer.clear();
-                buffer.put(("logout " + token).getBytes());
-                buffer.flip();
-                socketChannel.write(buffer);
-                buffer.clear();
-                buffer.put(new byte[buffer.limit()]);
+                writeFully(socketChannel, FrameCodec.encode("logout " + token));
                 socketChannel.configureBlocking(true);
-                socketChannel.read(buffer);
+                readFrame(socketChannel, codec);
                 socketChannel.close();
                 input_thread.interrupt();
                 System.out.println("Write \"again\" to play again and anything else to disconnect: ");
@@ -136,4 +135,34 @@ public class Client {
         }
 
     }
+
+    /**
+     * Writes the whole buffer to the channel, retrying while the socket send buffer is full.
+     *
+     * @param socketChannel The channel to write to.
+     * @param buffer        The buffer to write.
+     * @throws IOException If an I/O error occurs while writing.
+     */
+    private static void writeFully(SocketChannel socketChannel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            socketChannel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads from a blocking channel until a complete frame is received.
+     *
+     * @param socketChannel The channel to read from.
+     * @param codec         The codec that accumulates the received bytes.
+     * @return The message of the frame, or null if the server closed the connection first.
+     * @throws IOException If an I/O error occurs while reading.
+     */
+    private static String readFrame(SocketChannel socketChannel, FrameCodec codec) throws IOException {
+        String message;
+        while ((message = codec.nextFrame()) == null) {
+            if (codec.read(socketChannel) == -1)
+                return null;
+        }
+        return message;
+    }
 }
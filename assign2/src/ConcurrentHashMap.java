@@ -1,132 +1,436 @@
-import java.util.Collection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-public class ConcurrentHashMap<K, V> implements Map<K, V> {
+/**
+ The ConcurrentHashMap class is a thread-safe hash map split into stripes. Every stripe is a HashMap guarded by its own lock,
+ so threads working on keys of different stripes never wait for each other.
+ Single-key operations, including putIfAbsent(), computeIfAbsent(), compute(), computeIfPresent() and merge(), are atomic:
+ they run entirely under the lock of the key's stripe. The functions they are given must not modify the map.
+ The views (keySet(), values() and entrySet()) are weakly consistent: their iterators copy one stripe at a time, never throw
+ ConcurrentModificationException and reflect some, but not necessarily all, of the changes made after the iteration started.
+ size() and isEmpty() are estimates while the map is being modified.
+ */
+public class ConcurrentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int DEFAULT_STRIPES = 16;
 
-    private final HashMap<K, V> map = new HashMap<>();
-    private final ReentrantLock lock = new ReentrantLock();
+    private final Stripe<K, V>[] stripes;
+    private final int mask;
+    private final EntrySet entries = new EntrySet();
+
+    /**
+     The Stripe class holds the entries of the keys that hash to one stripe.
+     */
+    private static class Stripe<K, V> {
+        private final HashMap<K, V> map = new HashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        // written under the lock, read without it by size()
+        private volatile int size = 0;
+    }
+
+    /**
+     Constructs an empty ConcurrentHashMap object with the default number of stripes.
+     */
+    public ConcurrentHashMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     Constructs an empty ConcurrentHashMap object.
+     @param concurrencyLevel The expected number of threads modifying the map at once. It is rounded up to a power of two stripes.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentHashMap(int concurrencyLevel) {
+        int count = 1;
+        while (count < concurrencyLevel)
+            count <<= 1;
+        stripes = (Stripe<K, V>[]) new Stripe<?, ?>[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe<>();
+        mask = count - 1;
+    }
 
     @Override
     public int size() {
-        lock.lock();
-        try {
-            return map.size();
-        } finally {
-            lock.unlock();
-        }
+        long total = 0;
+        for (Stripe<K, V> stripe : stripes)
+            total += stripe.size;
+        return (int) Math.min(total, Integer.MAX_VALUE);
     }
 
     @Override
     public boolean isEmpty() {
-        lock.lock();
-        try {
-            return map.isEmpty();
-        } finally {
-            lock.unlock();
+        for (Stripe<K, V> stripe : stripes) {
+            if (stripe.size != 0)
+                return false;
         }
+        return true;
     }
 
     @Override
     public boolean containsKey(Object key) {
-        lock.lock();
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.containsKey(key);
+            return stripe.map.containsKey(key);
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
     public boolean containsValue(Object value) {
-        lock.lock();
+        for (Stripe<K, V> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                if (stripe.map.containsValue(value))
+                    return true;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.containsValue(value);
+            return stripe.map.get(key);
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
-    public V get(Object key) {
-        lock.lock();
+    public V getOrDefault(Object key, V defaultValue) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.get(key);
+            return stripe.map.getOrDefault(key, defaultValue);
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
     public V put(K key, V value) {
-        lock.lock();
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            V previous = stripe.map.put(key, value);
+            stripe.size = stripe.map.size();
+            return previous;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.put(key, value);
+            V previous = stripe.map.putIfAbsent(key, value);
+            stripe.size = stripe.map.size();
+            return previous;
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
     public V remove(Object key) {
-        lock.lock();
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.remove(key);
+            V previous = stripe.map.remove(key);
+            stripe.size = stripe.map.size();
+            return previous;
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
-    public void putAll(Map<? extends K, ? extends V> m) {
-        lock.lock();
+    public boolean remove(Object key, Object value) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            map.putAll(m);
+            boolean removed = stripe.map.remove(key, value);
+            stripe.size = stripe.map.size();
+            return removed;
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
-    public void clear() {
-        lock.lock();
+    public V replace(K key, V value) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            map.clear();
+            return stripe.map.replace(key, value);
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
-    public Set<K> keySet() {
-        lock.lock();
+    public boolean replace(K key, V oldValue, V newValue) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.keySet();
+            return stripe.map.replace(key, oldValue, newValue);
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
-    public Collection<V> values() {
-        lock.lock();
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.values();
+            V value = stripe.map.computeIfAbsent(key, mappingFunction);
+            stripe.size = stripe.map.size();
+            return value;
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
     @Override
-    public Set<Entry<K, V>> entrySet() {
-        lock.lock();
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            V value = stripe.map.computeIfPresent(key, remappingFunction);
+            stripe.size = stripe.map.size();
+            return value;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
         try {
-            return map.entrySet();
+            V value = stripe.map.compute(key, remappingFunction);
+            stripe.size = stripe.map.size();
+            return value;
         } finally {
-            lock.unlock();
+            stripe.lock.unlock();
         }
     }
 
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            V merged = stripe.map.merge(key, value, remappingFunction);
+            stripe.size = stripe.map.size();
+            return merged;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     Removes every entry, one stripe at a time. Entries added to a stripe after it was cleared are kept.
+     */
+    @Override
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.map.clear();
+                stripe.size = 0;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return entries;
+    }
+
+    private Stripe<K, V> stripeFor(Object key) {
+        int hash = Objects.hashCode(key);
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return stripes[hash & mask];
+    }
+
+    /**
+     The EntrySet class is the weakly consistent view of the map's entries. keySet() and values() are built on it.
+     */
+    private class EntrySet extends AbstractSet<Entry<K, V>> {
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentHashMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return ConcurrentHashMap.this.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry<?, ?> entry))
+                return false;
+            Stripe<K, V> stripe = stripeFor(entry.getKey());
+            stripe.lock.lock();
+            try {
+                Object value = stripe.map.get(entry.getKey());
+                return (value != null || stripe.map.containsKey(entry.getKey())) && Objects.equals(value, entry.getValue());
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return o instanceof Map.Entry<?, ?> entry && ConcurrentHashMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentHashMap.this.clear();
+        }
+    }
+
+    /**
+     The EntryIterator class walks the stripes in order, copying the entries of each stripe under its lock when it reaches it.
+     Its entries write through to the map with setValue(), and remove() removes the last returned key.
+     */
+    private class EntryIterator implements Iterator<Entry<K, V>> {
+        private int nextStripe = 0;
+        private Object[] keys = new Object[0];
+        private Object[] values = new Object[0];
+        private int position = 0;
+        private K lastKey = null;
+        private boolean canRemove = false;
+
+        @Override
+        public boolean hasNext() {
+            while (position == keys.length) {
+                if (nextStripe == stripes.length)
+                    return false;
+                copyStripe(stripes[nextStripe++]);
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            lastKey = (K) keys[position];
+            V value = (V) values[position];
+            position++;
+            canRemove = true;
+            return new WriteThroughEntry(lastKey, value);
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            ConcurrentHashMap.this.remove(lastKey);
+            canRemove = false;
+        }
+
+        private void copyStripe(Stripe<K, V> stripe) {
+            stripe.lock.lock();
+            try {
+                int count = stripe.map.size();
+                keys = new Object[count];
+                values = new Object[count];
+                int i = 0;
+                for (Map.Entry<K, V> entry : stripe.map.entrySet()) {
+                    keys[i] = entry.getKey();
+                    values[i] = entry.getValue();
+                    i++;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+            position = 0;
+        }
+    }
+
+    /**
+     The WriteThroughEntry class is a snapshot of an entry whose setValue() also updates the map.
+     */
+    private class WriteThroughEntry implements Map.Entry<K, V> {
+        private final K key;
+        private V value;
+
+        private WriteThroughEntry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(key, value);
+            V previous = this.value;
+            this.value = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Map.Entry<?, ?> entry && Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
 }
@@ -1,237 +1,312 @@
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
+/**
+ The ConcurrentList class is a thread-safe array list tuned for read-mostly use.
+ Reads (get(), size(), contains(), indexOf()...) first run as optimistic StampedLock reads, which take no lock at all,
+ and only fall back to a read lock when a writer changed the list in the meantime. Writes take the write lock.
+ iterator(), listIterator() and subList() work on a snapshot of the list taken when they are called: they never throw
+ ConcurrentModificationException and do not support modification. snapshot() and forEach() cover a whole scan with a single read.
+ */
 public class ConcurrentList<E> implements List<E>, Comparator<E> {
-    private final List<E> list = new ArrayList<>();
-    private final ReentrantLock lock = new ReentrantLock();
+    private static final Object[] EMPTY = new Object[0];
+
+    // guarded by lock; optimistic readers must validate what they read before using it
+    private Object[] elements = EMPTY;
+    private int size = 0;
+    private final StampedLock lock = new StampedLock();
 
     @Override
+    @SuppressWarnings("unchecked")
     public E get(int index) {
-        lock.lock();
-        try {
-            return list.get(index);
-        } finally {
-            lock.unlock();
+        long stamp = lock.tryOptimisticRead();
+        Object[] array = elements;
+        int count = size;
+        Object element = index >= 0 && index < count && index < array.length ? array[index] : null;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                count = size;
+                element = index >= 0 && index < count ? elements[index] : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
         }
+        Objects.checkIndex(index, count);
+        return (E) element;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public E set(int index, E element) {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            return list.set(index, element);
+            Objects.checkIndex(index, size);
+            E previous = (E) elements[index];
+            elements[index] = element;
+            return previous;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public void add(int index, E element) {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            list.add(index, element);
+            Objects.checkIndex(index, size + 1);
+            ensureCapacity(size + 1);
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = element;
+            size++;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public E remove(int index) {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            return list.remove(index);
+            Objects.checkIndex(index, size);
+            return removeAt(index);
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public int indexOf(Object o) {
-        lock.lock();
+        long stamp = lock.tryOptimisticRead();
+        int index = indexOf(o, elements, size);
+        if (lock.validate(stamp))
+            return index;
+        stamp = lock.readLock();
         try {
-            return list.indexOf(o);
+            return indexOf(o, elements, size);
         } finally {
-            lock.unlock();
+            lock.unlockRead(stamp);
         }
     }
 
     @Override
     public int lastIndexOf(Object o) {
-        lock.lock();
+        long stamp = lock.tryOptimisticRead();
+        int index = lastIndexOf(o, elements, size);
+        if (lock.validate(stamp))
+            return index;
+        stamp = lock.readLock();
         try {
-            return list.lastIndexOf(o);
+            return lastIndexOf(o, elements, size);
         } finally {
-            lock.unlock();
+            lock.unlockRead(stamp);
         }
     }
 
     @Override
     public ListIterator<E> listIterator() {
-        lock.lock();
-        try {
-            return list.listIterator();
-        } finally {
-            lock.unlock();
-        }
+        return snapshot().listIterator();
     }
 
     @Override
     public ListIterator<E> listIterator(int index) {
-        lock.lock();
-        try {
-            return list.listIterator(index);
-        } finally {
-            lock.unlock();
-        }
+        return snapshot().listIterator(index);
     }
 
+    /**
+     Returns a snapshot of a range of the list. Unlike a regular subList(), it is not a view: later changes to the list are not reflected in it.
+     @param fromIndex The first index of the range (inclusive).
+     @param toIndex The last index of the range (exclusive).
+     @return An unmodifiable copy of the range.
+     */
     @Override
     public List<E> subList(int fromIndex, int toIndex) {
-        lock.lock();
-        try {
-            return list.subList(fromIndex, toIndex);
-        } finally {
-            lock.unlock();
-        }
+        return snapshot().subList(fromIndex, toIndex);
     }
 
     @Override
     public int size() {
-        lock.lock();
+        long stamp = lock.tryOptimisticRead();
+        int count = size;
+        if (lock.validate(stamp))
+            return count;
+        stamp = lock.readLock();
         try {
-            return list.size();
+            return size;
         } finally {
-            lock.unlock();
+            lock.unlockRead(stamp);
         }
     }
 
     @Override
     public boolean isEmpty() {
-        lock.lock();
-        try {
-            return list.isEmpty();
-        } finally {
-            lock.unlock();
-        }
+        return size() == 0;
     }
 
     @Override
     public boolean contains(Object o) {
-        lock.lock();
-        try {
-            return list.contains(o);
-        } finally {
-            lock.unlock();
-        }
+        return indexOf(o) >= 0;
     }
 
     @Override
     public Iterator<E> iterator() {
-        lock.lock();
-        try {
-            return list.iterator();
-        } finally {
-            lock.unlock();
-        }
+        return snapshot().iterator();
     }
 
     @Override
     public Object[] toArray() {
-        lock.lock();
-        try {
-            return list.toArray();
-        } finally {
-            lock.unlock();
-        }
+        return copyElements();
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T[] toArray(T[] a) {
-        lock.lock();
-        try {
-            return list.toArray(a);
-        } finally {
-            lock.unlock();
-        }
+        Object[] copy = copyElements();
+        if (a.length < copy.length)
+            return (T[]) Arrays.copyOf(copy, copy.length, a.getClass());
+        System.arraycopy(copy, 0, a, 0, copy.length);
+        if (a.length > copy.length)
+            a[copy.length] = null;
+        return a;
+    }
+
+    /**
+     Takes a snapshot of the list, with at most one (read) lock acquisition.
+     @return An unmodifiable copy of the elements, in order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> snapshot() {
+        return (List<E>) Collections.unmodifiableList(Arrays.asList(copyElements()));
+    }
+
+    /**
+     Runs an action for every element of a snapshot of the list. The action runs without holding any lock, so it may modify the list.
+     @param action The action to run.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super E> action) {
+        for (Object element : copyElements())
+            action.accept((E) element);
     }
 
     @Override
     public boolean add(E e) {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            return list.add(e);
+            ensureCapacity(size + 1);
+            elements[size++] = e;
+            return true;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public boolean remove(Object o) {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            return list.remove(o);
+            int index = indexOf(o, elements, size);
+            if (index < 0)
+                return false;
+            removeAt(index);
+            return true;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public boolean containsAll(Collection<?> c) {
-        lock.lock();
-        try {
-            return new HashSet<>(list).containsAll(c);
-        } finally {
-            lock.unlock();
-        }
+        return new HashSet<>(snapshot()).containsAll(c);
     }
 
     @Override
     public boolean addAll(Collection<? extends E> c) {
-        lock.lock();
+        return addAll(-1, c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c) {
+        Object[] added = c.toArray();
+        long stamp = lock.writeLock();
         try {
-            return list.addAll(c);
+            if (index == -1)
+                index = size;
+            Objects.checkIndex(index, size + 1);
+            ensureCapacity(size + added.length);
+            System.arraycopy(elements, index, elements, index + added.length, size - index);
+            System.arraycopy(added, 0, elements, index, added.length);
+            size += added.length;
+            return added.length > 0;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public boolean addAll(int index, Collection<? extends E> c) {
-        lock.lock();
+    public boolean removeAll(Collection<?> c) {
+        return removeIf(c::contains);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        return removeIf(element -> !c.contains(element));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean removeIf(Predicate<? super E> filter) {
+        long stamp = lock.writeLock();
         try {
-            return list.addAll(index, c);
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!filter.test((E) elements[i]))
+                    elements[kept++] = elements[i];
+            }
+            boolean removed = kept < size;
+            Arrays.fill(elements, kept, size, null);
+            size = kept;
+            return removed;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public boolean removeAll(Collection<?> c) {
-        lock.lock();
+    @SuppressWarnings("unchecked")
+    public void replaceAll(UnaryOperator<E> operator) {
+        long stamp = lock.writeLock();
         try {
-            return list.removeAll(c);
+            for (int i = 0; i < size; i++)
+                elements[i] = operator.apply((E) elements[i]);
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
-    public boolean retainAll(Collection<?> c) {
-        lock.lock();
+    @SuppressWarnings("unchecked")
+    public void sort(Comparator<? super E> c) {
+        long stamp = lock.writeLock();
         try {
-            return list.retainAll(c);
+            Arrays.sort((E[]) elements, 0, size, c);
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
     @Override
     public void clear() {
-        lock.lock();
+        long stamp = lock.writeLock();
         try {
-            list.clear();
+            Arrays.fill(elements, 0, size, null);
+            size = 0;
         } finally {
-            lock.unlock();
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -239,4 +314,52 @@ public class ConcurrentList<E> implements List<E>, Comparator<E> {
     public int compare(E o1, E o2) {
         return 0;
     }
+
+    /**
+     Copies the elements, optimistically first and under the read lock if a writer interfered.
+     */
+    private Object[] copyElements() {
+        long stamp = lock.tryOptimisticRead();
+        Object[] array = elements;
+        int count = size;
+        Object[] copy = count <= array.length ? Arrays.copyOf(array, count) : null;
+        if (copy != null && lock.validate(stamp))
+            return copy;
+        stamp = lock.readLock();
+        try {
+            return Arrays.copyOf(elements, size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E removeAt(int index) {
+        E removed = (E) elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        elements[--size] = null;
+        return removed;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > elements.length)
+            elements = Arrays.copyOf(elements, Math.max(capacity, Math.max(10, elements.length * 2)));
+    }
+
+    private static int indexOf(Object o, Object[] array, int count) {
+        count = Math.min(count, array.length);
+        for (int i = 0; i < count; i++) {
+            if (Objects.equals(o, array[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(Object o, Object[] array, int count) {
+        for (int i = Math.min(count, array.length) - 1; i >= 0; i--) {
+            if (Objects.equals(o, array[i]))
+                return i;
+        }
+        return -1;
+    }
 }
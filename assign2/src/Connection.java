@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ The Connection class represents a client connection and the state that belongs to it.
+ Every connection is owned by a single Reactor: its channel is only read, written and closed by that reactor's thread.
+ Other threads interact with the connection through the reactor's handoff queue.
+ Outgoing messages go through a bounded outbound queue, which any thread can fill and which the owning reactor drains
+ whenever the socket can take more bytes (OP_WRITE), so that senders never block on a slow client.
+ The read buffer and the outgoing frames are leased from the reactor's BufferPool and given back when written or when the connection closes.
+ The pool belongs to the reactor thread, so messages sent from other threads are queued as text and encoded by the reactor when it writes them.
+ While an authentication request of the connection is in flight, its next messages are deferred so that they are handled in order.
+ */
+public class Connection {
+    private static final int MAX_GATHER = 64;
+    private static final int MAX_DEFERRED = 64;
+
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final String remoteAddress;
+    private final BufferPool pool;
+    private final FrameCodec codec;
+    private SelectionKey key;
+
+    // encoded frames, or messages still to be encoded by the reactor
+    private final ConcurrentLinkedQueue<Object> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedBytes = new AtomicInteger(0);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final int outboundLimit;
+    private final SlowConsumerPolicy policy;
+
+    // frames taken from the outbound queue that were not completely written yet (owned by the reactor)
+    private final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private boolean writeFailed = false;
+
+    // messages received while an authentication request is in flight, handled in order once it completes (owned by the reactor)
+    private final ArrayDeque<String> deferred = new ArrayDeque<>();
+    private boolean authPending = false;
+
+    /**
+     Constructs a Connection object.
+     @param channel The socket channel of the client.
+     @param reactor The reactor that owns the connection.
+     @param outboundLimit The maximum number of bytes waiting to be written to the client.
+     @param policy What to do when the outbound limit would be exceeded.
+     @throws IOException If the remote address of the channel cannot be retrieved.
+     */
+    public Connection(SocketChannel channel, Reactor reactor, int outboundLimit, SlowConsumerPolicy policy) throws IOException {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+        this.pool = reactor.getBufferPool();
+        this.codec = new FrameCodec(pool);
+        this.outboundLimit = outboundLimit;
+        this.policy = policy;
+    }
+
+    /**
+     Gets the socket channel of the connection.
+     @return The socket channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     Gets the reactor that owns the connection.
+     @return The owning reactor.
+     */
+    public Reactor getReactor() {
+        return reactor;
+    }
+
+    /**
+     Gets the codec that accumulates and decodes the frames received on the connection. Only used by the owning reactor.
+     @return The connection's frame codec.
+     */
+    public FrameCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     Sets the selection key of the connection. Called by the owning reactor when the channel is registered.
+     @param key The selection key.
+     */
+    public void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     Checks if an authentication request of the connection is in flight. Must be called by the owning reactor.
+     @return true if the connection is waiting for an authentication result, false otherwise.
+     */
+    public boolean isAuthPending() {
+        return authPending;
+    }
+
+    /**
+     Marks the connection as waiting, or no longer waiting, for an authentication result. Must be called by the owning reactor.
+     @param authPending true when a request is submitted, false when its result is handled.
+     */
+    public void setAuthPending(boolean authPending) {
+        this.authPending = authPending;
+    }
+
+    /**
+     Keeps a message to be handled once the authentication request completes. Must be called by the owning reactor.
+     @param message The message.
+     @return true if the message was kept, false if too many messages are already deferred.
+     */
+    public boolean defer(String message) {
+        if (deferred.size() >= MAX_DEFERRED)
+            return false;
+        deferred.add(message);
+        return true;
+    }
+
+    /**
+     Takes the oldest deferred message. Must be called by the owning reactor.
+     @return The message, or null if there are no deferred messages.
+     */
+    public String nextDeferred() {
+        return deferred.poll();
+    }
+
+    /**
+     Checks if the connection is still open.
+     @return true if the connection was not closed, false otherwise.
+     */
+    public boolean isOpen() {
+        return !closed.get() && channel.isOpen();
+    }
+
+    /**
+     Sends a message to the client. Safe to call from any thread.
+     The message is queued and written by the owning reactor; if the client is too slow, the slow-consumer policy is applied.
+     On the reactor thread the message is encoded right away into a pooled buffer; other threads queue the text, which the reactor encodes when writing it.
+     A message longer than the maximum frame size, which the client would reject, is discarded.
+     @param message The message to be sent.
+     @return true if the message was queued, false if it was discarded.
+     */
+    public boolean send(String message) {
+        int size = FrameCodec.encodedLength(message);
+        if (size > FrameCodec.HEADER_SIZE + FrameCodec.MAX_FRAME_SIZE) {
+            System.out.println("Error: discarding a message of " + size + " bytes to " + remoteAddress + ", longer than a frame!");
+            return false;
+        }
+        if (reactor.inReactorThread())
+            return enqueue(FrameCodec.encode(message, pool));
+        return queue(message, size);
+    }
+
+    /**
+     Queues an encoded frame for the client. Safe to call from any thread.
+     The connection takes ownership of the frame: pooled frames are given back to the pool once written or discarded.
+     @param frame The frame to be written. It must not be modified after being queued.
+     @return true if the frame was queued, false if it was discarded.
+     */
+    public boolean enqueue(ByteBuffer frame) {
+        return queue(frame, frame.remaining());
+    }
+
+    /**
+     Queues an encoded frame or a message to be encoded, applying the slow-consumer policy.
+     Pooled frames are only queued (and so only given back here) by the reactor thread.
+     @param frame The frame, or the message.
+     @param size The size of the encoded frame.
+     @return true if the frame was queued, false if it was discarded.
+     */
+    private boolean queue(Object frame, int size) {
+        if (closed.get()) {
+            release(frame);
+            return false;
+        }
+        if (queuedBytes.addAndGet(size) > outboundLimit) {
+            switch (policy) {
+                case DROP -> {
+                    queuedBytes.addAndGet(-size);
+                    release(frame);
+                    return false;
+                }
+                case DISCONNECT -> {
+                    queuedBytes.addAndGet(-size);
+                    release(frame);
+                    System.out.println("Slow client disconnected: " + remoteAddress);
+                    reactor.execute(() -> reactor.disconnect(this));
+                    return false;
+                }
+                case COALESCE -> {
+                    // the frame is queued anyway, the reactor discards the oldest ones before writing
+                }
+            }
+        }
+        outbound.add(frame);
+        if (closed.get()) {
+            // the reactor may have discarded the queue before the frame was added;
+            // removed by identity, since remove() would match another frame with the same bytes
+            if (outbound.removeIf(queued -> queued == frame)) {
+                queuedBytes.addAndGet(-size);
+                release(frame);
+            }
+            return false;
+        }
+        if (flushScheduled.compareAndSet(false, true))
+            reactor.execute(this::flush);
+        return true;
+    }
+
+    /**
+     Writes as many queued frames as the socket accepts, using gathering writes.
+     If some bytes are left, the connection waits for OP_WRITE before writing again. Must be called on the owning reactor.
+     */
+    public void flush() {
+        flushScheduled.set(false);
+        if (!isOpen() || writeFailed) {
+            discardQueued();
+            return;
+        }
+        if (policy == SlowConsumerPolicy.COALESCE)
+            coalesce();
+        try {
+            while (true) {
+                Object next;
+                while (inFlight.size() < MAX_GATHER && (next = outbound.poll()) != null) {
+                    inFlight.add(next instanceof ByteBuffer frame ? frame : FrameCodec.encode((String) next, pool));
+                }
+                if (inFlight.isEmpty())
+                    break;
+                int count = 0;
+                for (ByteBuffer buffer : inFlight) {
+                    gather[count++] = buffer;
+                }
+                long written = channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                queuedBytes.addAndGet((int) -written);
+                while (!inFlight.isEmpty() && !inFlight.peek().hasRemaining()) {
+                    pool.release(inFlight.poll());
+                }
+                if (!inFlight.isEmpty())
+                    break;
+            }
+        } catch (IOException e) {
+            System.out.println("Error: unable to send message to " + remoteAddress);
+            writeFailed = true;
+            discardQueued();
+            reactor.disconnect(this);
+            return;
+        }
+        if (key != null && key.isValid()) {
+            boolean pending = !inFlight.isEmpty() || !outbound.isEmpty();
+            int ops = key.interestOps();
+            key.interestOps(pending ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     Closes the connection. Whatever the socket accepts right away of the queued messages is written first.
+     The channel is closed by the owning reactor.
+     */
+    public void close() {
+        if (reactor.inReactorThread()) {
+            closeNow();
+        } else {
+            reactor.execute(this::closeNow);
+        }
+    }
+
+    /**
+     Discards the oldest queued frames that have not started being written until the queue fits in the outbound limit.
+     */
+    private void coalesce() {
+        while (queuedBytes.get() > outboundLimit) {
+            Object oldest = outbound.poll();
+            if (oldest == null)
+                break;
+            queuedBytes.addAndGet(-sizeOf(oldest));
+            release(oldest);
+        }
+    }
+
+    private void discardQueued() {
+        ByteBuffer frame;
+        while ((frame = inFlight.poll()) != null) {
+            pool.release(frame);
+        }
+        Object queued;
+        while ((queued = outbound.poll()) != null) {
+            queuedBytes.addAndGet(-sizeOf(queued));
+            release(queued);
+        }
+    }
+
+    private static int sizeOf(Object queued) {
+        return queued instanceof ByteBuffer frame ? frame.remaining() : FrameCodec.encodedLength((String) queued);
+    }
+
+    private void release(Object queued) {
+        if (queued instanceof ByteBuffer frame)
+            pool.release(frame);
+    }
+
+    private void closeNow() {
+        if (closed.get())
+            return;
+        flush();
+        if (!closed.compareAndSet(false, true))
+            return;
+        discardQueued();
+        codec.release();
+        if (key != null)
+            key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Error: unable to close connection " + remoteAddress);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return remoteAddress;
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ The FrameCodec class implements the wire protocol shared by the server and the client.
+ Every message travels as a frame: a 4-byte big-endian payload length followed by the UTF-8 encoded payload.
+ A FrameCodec instance accumulates the bytes received on one connection until they form complete frames,
+ so messages that TCP splits or coalesces are rebuilt correctly and several pipelined messages can be decoded from a single read.
+ On the server the accumulation buffer is leased from a BufferPool and frames are decoded and encoded in place with per-thread coders.
+ */
+public class FrameCodec {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<Coders> coders = ThreadLocal.withInitial(Coders::new);
+
+    private final BufferPool pool;
+    private ByteBuffer leased;
+
+    // bytes received and not yet decoded are between start and the buffer's position
+    private ByteBuffer buffer;
+    private int start = 0;
+
+    /**
+     Constructs a FrameCodec object that accumulates into a heap buffer.
+     @param initialCapacity The initial size of the accumulation buffer. The buffer grows as needed, up to the maximum frame size.
+     */
+    public FrameCodec(int initialCapacity) {
+        this.pool = null;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     Constructs a FrameCodec object that accumulates into a buffer leased from the given pool.
+     Frames that do not fit in a pooled buffer are accumulated in a temporary heap buffer.
+     @param pool The pool to lease the accumulation buffer from. The buffer is given back by release().
+     */
+    public FrameCodec(BufferPool pool) {
+        this.pool = pool;
+        this.leased = pool.acquire();
+        this.buffer = leased;
+    }
+
+    /**
+     Encodes a message into a new heap frame.
+     @param message The message to encode.
+     @return A buffer with the frame, ready to be written.
+     @throws IllegalArgumentException If the encoded message is longer than MAX_FRAME_SIZE, which the receiving end would reject.
+     */
+    public static ByteBuffer encode(String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_FRAME_SIZE)
+            throw new IllegalArgumentException("Message too long: " + payload.length + " bytes (at most " + MAX_FRAME_SIZE + ")");
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        frame.putInt(payload.length);
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     Encodes a message into a frame, directly into a buffer leased from the pool.
+     Messages that do not fit in a pooled buffer are encoded into a new heap buffer.
+     @param message The message to encode.
+     @param pool The pool to lease the buffer from.
+     @return A buffer with the frame, ready to be written. It should be given back to the pool once written.
+     @throws IllegalArgumentException If the encoded message is longer than MAX_FRAME_SIZE, which the receiving end would reject.
+     */
+    public static ByteBuffer encode(CharSequence message, BufferPool pool) {
+        ByteBuffer frame = pool.acquire();
+        CharsetEncoder encoder = coders.get().encoder;
+        encoder.reset();
+        frame.position(HEADER_SIZE);
+        CharBuffer chars = CharBuffer.wrap(message);
+        CoderResult result = encoder.encode(chars, frame, true);
+        if (!result.isUnderflow() || !encoder.flush(frame).isUnderflow()) {
+            pool.release(frame);
+            return encode(message.toString());
+        }
+        frame.putInt(0, frame.position() - HEADER_SIZE);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     Computes the size of the frame that encodes a message, without encoding it.
+     Like encode(), an unpaired surrogate counts as the single '?' byte that replaces it.
+     @param message The message.
+     @return The size of the frame, header included, in bytes.
+     */
+    public static int encodedLength(CharSequence message) {
+        int length = HEADER_SIZE;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < message.length() && Character.isLowSurrogate(message.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     Reads the available bytes from a channel into the accumulation buffer.
+     @param channel The channel to read from.
+     @return The number of bytes read, possibly zero, or -1 if the channel has reached end-of-stream.
+     @throws IOException If an I/O error occurs while reading.
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        if (!buffer.hasRemaining())
+            makeRoom(buffer.capacity() - start + 1);
+        return channel.read(buffer);
+    }
+
+    /**
+     Decodes the next complete frame from the accumulation buffer.
+     @return The message carried by the frame, or null if no complete frame has been received yet.
+     @throws ProtocolException If the frame announces an invalid length or does not carry valid UTF-8.
+     */
+    public String nextFrame() throws ProtocolException {
+        int available = buffer.position() - start;
+        if (available < HEADER_SIZE) {
+            makeRoom(HEADER_SIZE);
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length < 0 || length > MAX_FRAME_SIZE)
+            throw new ProtocolException("Invalid frame length: " + length);
+        if (available < HEADER_SIZE + length) {
+            makeRoom(HEADER_SIZE + length);
+            return null;
+        }
+        String message = decode(start + HEADER_SIZE, length);
+        start += HEADER_SIZE + length;
+        return message;
+    }
+
+    /**
+     Gives the leased accumulation buffer back to the pool. The codec must not be used afterwards.
+     */
+    public void release() {
+        if (pool != null && leased != null) {
+            // the buffer may have been flipped to move its bytes to a larger one, so it is reopened before being given back
+            leased.clear();
+            pool.release(leased);
+            leased = null;
+        }
+    }
+
+    /**
+     Decodes a payload in place, through the calling thread's decoder and character buffer.
+     */
+    private String decode(int offset, int length) throws ProtocolException {
+        Coders threadCoders = coders.get();
+        CharBuffer chars = threadCoders.chars(length);
+        CharsetDecoder decoder = threadCoders.decoder;
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + length).position(offset);
+        decoder.reset();
+        if (decoder.decode(payload, chars, true).isError() || decoder.flush(chars).isError())
+            throw new ProtocolException("Invalid UTF-8 payload");
+        chars.flip();
+        return chars.toString();
+    }
+
+    /**
+     Moves the undecoded bytes to the beginning of the buffer and grows it if it cannot hold the given number of bytes.
+     Once an oversized frame has been consumed, the codec goes back to its pooled buffer.
+     @param needed The number of bytes, counted from the first undecoded byte, that the buffer must be able to hold.
+     */
+    private void makeRoom(int needed) {
+        int pending = buffer.position() - start;
+        if (pending == 0 && buffer != leased && leased != null) {
+            buffer = leased;
+            buffer.clear();
+            start = 0;
+        }
+        if (start > 0) {
+            buffer.flip();
+            buffer.position(start);
+            buffer.compact();
+            start = 0;
+        }
+        if (buffer.capacity() < needed) {
+            int capacity = Math.min(Math.max(needed, buffer.capacity() * 2), HEADER_SIZE + MAX_FRAME_SIZE);
+            ByteBuffer larger = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        buffer.position(pending);
+        buffer.limit(buffer.capacity());
+    }
+
+    /**
+     The Coders class holds the UTF-8 encoder, decoder and character buffer reused by one thread.
+     */
+    private static class Coders {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        private CharBuffer chars = CharBuffer.allocate(1024);
+
+        private CharBuffer chars(int bytes) {
+            // a UTF-8 byte never decodes to more than one char
+            if (chars.capacity() < bytes)
+                chars = CharBuffer.allocate(bytes);
+            chars.clear();
+            return chars;
+        }
+    }
+}
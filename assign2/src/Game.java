@@ -5,6 +5,7 @@ public class Game implements Cloneable {
 
     private static final int numPlayers = 2; // must be even
     private static final int interactions_before_end_game = 4;
+    private static final int inbox_capacity = 32;
 
     public static final String welcomeMessage = "Welcome to our game!\nTo play this game, you only need to write some messages in your keyboard and check what the other players have done in the meantime!\nThe game ends after " + interactions_before_end_game + " interactions with players.\n";
 
@@ -22,8 +23,7 @@ public class Game implements Cloneable {
     private ArrayList<String> usernames;
     private ArrayList<Integer> usernames_points;
 
-    private ArrayList<String> username_message;
-    private ArrayList<String> messages;
+    private GameInbox inbox;
     private int iterations;
 
     /**
@@ -45,14 +45,24 @@ public class Game implements Cloneable {
     }
 
     /**
-     * Stores the message into the "messages" list, as well as the username of the client who sent it.
+     * Stores the message into the game's inbox, as well as the username of the client who sent it.
      * The purpose of this function is to make the connection between the server and the game.
+     * It can be called by any thread, while the game is run by another one.
      * @param username  The username of the player.
      * @param message   The message sent by the player.
+     * @return true if the message was stored, false if the inbox is full.
      */
-    public void sendMessage(String username, String message) {
-        username_message.add(username);
-        messages.add(message);
+    public boolean sendMessage(String username, String message) {
+        return inbox.offer(username, message);
+    }
+
+    /**
+     * Checks if the game has messages that were not processed yet.
+     *
+     * @return true if there are pending messages, false otherwise.
+     */
+    public boolean hasPendingMessages() {
+        return inbox.hasMessages();
     }
 
     /**
@@ -64,8 +74,7 @@ public class Game implements Cloneable {
         message_for_server = new ArrayList<>();
         username_message_for_server = new ArrayList<>();
         usernames_points = new ArrayList<>();
-        username_message = new ArrayList<>();
-        this.messages = new ArrayList<>();
+        inbox = new GameInbox(inbox_capacity);
         gameLogicProbs = new ArrayList<>();
         gameLogicValues = new ArrayList<>();
 
@@ -114,17 +123,25 @@ public class Game implements Cloneable {
         return numPlayers;
     }
 
+    /**
+     Gets the number of interactions after which a game ends.
+     @return The length of a game, in interactions.
+     */
+    public static int getInteractionsBeforeEndGame() {
+        return interactions_before_end_game;
+    }
+
     /**
      Advances the game to the next iteration.
-     Executes game logic for pending messages until the game ends or there are no more messages.
+     Executes game logic for all the pending messages, in one pass over the inbox. Messages received after the game ended are discarded.
      */
     public void nextIteration() {
-        while (!this.messages.isEmpty() && !isEnded()) {
-            iterations++;
-            gameLogic(username_message.get(0));
-            messages.remove(0);
-            username_message.remove(0);
-        }
+        inbox.drain((username, message) -> {
+            if (!isEnded()) {
+                iterations++;
+                gameLogic(username);
+            }
+        });
     }
 
     /**
@@ -226,8 +243,7 @@ public class Game implements Cloneable {
             clone.message_for_server = new ArrayList<>();
             clone.username_message_for_server = new ArrayList<>();
             clone.usernames_points = new ArrayList<>();
-            clone.username_message = new ArrayList<>();
-            clone.messages = new ArrayList<>();
+            clone.inbox = new GameInbox(inbox_capacity);
             return clone;
         } catch (CloneNotSupportedException e) {
             throw new AssertionError();
@@ -0,0 +1,129 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ The GameBenchmark class compares the game execution modes with many concurrent matches, without any networking.
+ For every mode and match count it starts all the matches, measures the memory and threads they hold while parked between messages,
+ and then measures the wakeup latency: the time from a message being sent to a match until the match has processed it.
+ The memory column is the Java heap held by the parked matches; the stacks of platform threads live outside the heap, so the threads column is reported too.
+ Usage: java GameBenchmark [matches...] (1000 10000 50000 by default).
+ The modes can be chosen with the "benchmark.modes" system property (e.g. -Dbenchmark.modes=PLATFORM_THREADS,VIRTUAL_THREADS).
+ Platform threads may fail to start for the larger counts, which is reported instead of measured.
+ VIRTUAL_THREADS requires JDK 21 or later; on older JVMs its rows are skipped rather than measured with another kind of thread.
+ */
+public class GameBenchmark implements GameCallback {
+    // every round but the last one is measured; the last one ends the matches
+    private static final int ROUNDS = Game.getInteractionsBeforeEndGame() - 1;
+
+    private final AtomicLongArray sentAt;
+    private final long[] latencies;
+    private final AtomicReference<CountDownLatch> pending = new AtomicReference<>();
+
+    private GameBenchmark(int matches) {
+        sentAt = new AtomicLongArray(matches);
+        latencies = new long[matches];
+    }
+
+    /**
+     Records the wakeup latency of a match. Updates that do not answer a benchmark message (e.g. the first iteration) only count down.
+     @param game The game object.
+     @param runner The associated game runner.
+     */
+    @Override
+    public void onUpdate(Game game, GameRunner runner) {
+        game.getMessageForServer();
+        game.getUsernameFromMessageForServer();
+        long sent = sentAt.getAndSet(runner.getIndex(), 0);
+        if (sent != 0)
+            latencies[runner.getIndex()] = System.nanoTime() - sent;
+        if (sent != 0 || !runner.isReady())
+            pending.get().countDown();
+    }
+
+    /**
+     Runs the benchmark.
+     @param args the numbers of concurrent matches to measure.
+     @throws InterruptedException if the benchmark is interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int[] counts = args.length == 0 ? new int[]{1000, 10000, 50000} : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        String modes = System.getProperty("benchmark.modes", "ACTOR,PLATFORM_THREADS,VIRTUAL_THREADS");
+        System.out.printf("%-17s %8s %12s %10s %10s %10s %10s%n", "mode", "matches", "memory (MB)", "threads", "p50 (us)", "p99 (us)", "max (us)");
+        for (String mode : modes.split(",")) {
+            GameExecutionMode executionMode = GameExecutionMode.valueOf(mode.trim());
+            if (!executionMode.isSupported()) {
+                System.out.printf("%-17s skipped: not supported by this JVM (requires JDK 21 or later)%n", executionMode);
+                continue;
+            }
+            for (int count : counts) {
+                String result;
+                try {
+                    result = new GameBenchmark(count).run(executionMode, count);
+                } catch (OutOfMemoryError e) {
+                    result = "failed: " + e.getMessage();
+                }
+                System.out.printf("%-17s %8d %s%n", mode.trim(), count, result);
+            }
+        }
+    }
+
+    private String run(GameExecutionMode mode, int count) throws InterruptedException {
+        ExecutorService executor = mode.newExecutor(Runtime.getRuntime().availableProcessors());
+        Game model = new Game();
+        List<GameRunner> runners = new ArrayList<>(count);
+        try {
+            long before = usedMemory();
+            pending.set(new CountDownLatch(count));
+            for (int i = 0; i < count; i++) {
+                GameRunner runner = new GameRunner(model.clone(), this, i, executor, mode);
+                runners.add(runner);
+                runner.povoate_users(new ArrayList<>(List.of("a" + i, "b" + i)));
+                runner.startGame();
+            }
+            pending.get().await();
+            long memory = usedMemory() - before;
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            long[] all = new long[ROUNDS * count];
+            for (int round = 0; round < ROUNDS; round++) {
+                sendRound(runners).await();
+                System.arraycopy(latencies, 0, all, round * count, count);
+            }
+            Arrays.sort(all);
+            return String.format("%12.1f %10d %10d %10d %10d", memory / (1024.0 * 1024.0), threads,
+                    all[all.length / 2] / 1000, all[(int) (all.length * 0.99)] / 1000, all[all.length - 1] / 1000);
+        } finally {
+            // the games end after a few more messages, which releases the threads of the thread-per-game modes
+            for (int i = ROUNDS; i < Game.getInteractionsBeforeEndGame(); i++)
+                sendRound(runners).await(1, TimeUnit.MINUTES);
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private CountDownLatch sendRound(List<GameRunner> runners) {
+        CountDownLatch latch = new CountDownLatch(runners.size());
+        pending.set(latch);
+        for (GameRunner runner : runners) {
+            sentAt.set(runner.getIndex(), System.nanoTime());
+            runner.sendMessage("a" + runner.getIndex(), "move");
+        }
+        return latch;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ The GameExecutionMode enum lists how the server runs its games.
+ In every mode the number of games is a logical limit (the number of game servers); it is not tied to the number of threads.
+ */
+public enum GameExecutionMode {
+    /**
+     Games are mailbox-driven actors: a game is handed to one of a fixed number of workers only while it has messages to process.
+     */
+    ACTOR,
+    /**
+     Every running game has its own platform thread, which blocks on the game's inbox between messages.
+     */
+    PLATFORM_THREADS,
+    /**
+     Every running game has its own virtual thread, which blocks on the game's inbox between messages without pinning a carrier thread.
+     Requires JDK 21 or later: on older JVMs this mode is not supported and cannot be used (see isSupported()).
+     */
+    VIRTUAL_THREADS;
+
+    /**
+     Checks if the games of this mode block a thread of their own between messages.
+     @return true if every game has its own thread, false if the games share the workers.
+     */
+    public boolean isThreadPerGame() {
+        return this != ACTOR;
+    }
+
+    /**
+     Checks if this mode can be used on the running JVM.
+     @return false for VIRTUAL_THREADS on JVMs older than JDK 21, true otherwise.
+     */
+    public boolean isSupported() {
+        return this != VIRTUAL_THREADS || virtualThreadsSupported();
+    }
+
+    /**
+     Creates the executor that runs the games of this mode.
+     @param workers The number of workers (only used by the ACTOR mode).
+     @return The executor.
+     @throws UnsupportedOperationException If the mode is not supported by the running JVM (see isSupported()).
+     */
+    public ExecutorService newExecutor(int workers) {
+        AtomicInteger count = new AtomicInteger();
+        switch (this) {
+            case ACTOR:
+                return Executors.newFixedThreadPool(workers, task -> new Thread(task, "game-worker-" + count.getAndIncrement()));
+            case VIRTUAL_THREADS:
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual == null)
+                    throw new UnsupportedOperationException("VIRTUAL_THREADS requires JDK 21 or later (running " + System.getProperty("java.version") + ")");
+                return virtual;
+            default:
+                return newPlatformThreadExecutor(count);
+        }
+    }
+
+    private static ExecutorService newPlatformThreadExecutor(AtomicInteger count) {
+        return Executors.newCachedThreadPool(task -> new Thread(task, "game-" + count.getAndIncrement()));
+    }
+
+    /**
+     Checks if the JVM supports virtual threads.
+     @return true if virtual threads are available, false otherwise.
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // looked up reflectively so that the server still compiles and runs on JVMs without virtual threads
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
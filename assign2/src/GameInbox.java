@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ The GameInbox class is a bounded, lock-free, multi-producer single-consumer ring buffer of (player, payload) messages.
+ Any thread (e.g. the reactors) can post messages, while only the thread that runs the game drains them.
+ Producers claim a slot with a CAS on the tail and publish it by advancing the slot's sequence number;
+ the consumer drains every published slot in one pass, so no array is ever shifted.
+ */
+public class GameInbox {
+    private final int mask;
+    private final String[] players;
+    private final String[] payloads;
+
+    // sequence == position: the slot is free for the producer claiming that position;
+    // sequence == position + 1: the slot holds the message at that position, ready to be consumed
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // only written by the consumer; volatile so that any thread can check if there are messages
+    private volatile long head = 0;
+
+    /**
+     The Handler interface receives the messages drained from the inbox.
+     */
+    public interface Handler {
+        void onMessage(String player, String payload);
+    }
+
+    /**
+     Constructs a GameInbox object.
+     @param capacity The maximum number of queued messages. It is rounded up to a power of two.
+     */
+    public GameInbox(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        players = new String[size];
+        payloads = new String[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     Posts a message to the inbox. Can be called by any thread.
+     @param player The username of the sender.
+     @param payload The message.
+     @return true if the message was queued, false if the inbox is full.
+     */
+    public boolean offer(String player, String payload) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) (position & mask);
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1))
+                    break;
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        int slot = (int) (position & mask);
+        players[slot] = player;
+        payloads[slot] = payload;
+        sequences.set(slot, position + 1);
+        return true;
+    }
+
+    /**
+     Hands every published message to the handler, in order, and frees their slots. Must only be called by the consumer thread.
+     @param handler The handler of the messages.
+     @return The number of messages drained.
+     */
+    public int drain(Handler handler) {
+        long position = head;
+        int drained = 0;
+        while (true) {
+            int slot = (int) (position & mask);
+            if (sequences.get(slot) != position + 1)
+                break;
+            String player = players[slot];
+            String payload = payloads[slot];
+            players[slot] = null;
+            payloads[slot] = null;
+            sequences.set(slot, position + mask + 1);
+            head = ++position;
+            drained++;
+            handler.onMessage(player, payload);
+        }
+        return drained;
+    }
+
+    /**
+     Checks if the inbox has published messages that have not been drained yet.
+     @return true if there are messages to drain, false otherwise.
+     */
+    public boolean hasMessages() {
+        long position = head;
+        return sequences.get((int) (position & mask)) == position + 1;
+    }
+}
@@ -1,34 +1,55 @@
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- The GameRunner class represents a thread that runs a game instance and communicates with a GameCallback (in this case, the server).
- It manages the execution of the game iterations and notifies the callback of game updates.
+ The GameRunner class runs a game instance as a mailbox-driven actor and communicates with a GameCallback (in this case, the server).
+ Messages for the game are queued in the game's inbox (its mailbox). The runner is handed to a worker only when the inbox has messages,
+ the worker runs the game iterations, notifies the callback of the game updates and is then released,
+ so a small pool of workers can run many more games than it has threads.
+ A game is only ever run by one worker at a time.
+ In the thread-per-game modes the runner instead keeps its own (platform or virtual) thread for the whole game,
+ which waits on a Condition until the inbox has messages.
  */
-public class GameRunner extends Thread {
-    private Game game;
-
-    private final Object lock;
+public class GameRunner implements Runnable {
+    private volatile Game game;
 
     private final GameCallback gameCallback;
 
     private final int index;
 
-    private boolean waiting;
+    private final Executor executor;
+
+    private final boolean threadPerGame;
+
+    // used in the thread-per-game modes to wait for messages
+    private final ReentrantLock lock;
+    private final Condition messagesAvailable;
+
+    // true while the runner is queued on, or running in, a worker
+    private final AtomicBoolean scheduled;
 
-    private boolean hasStarted;
+    private volatile boolean hasStarted;
 
     /**
      Constructs a GameRunner object.
      @param game The game instance to run.
      @param callback The callback interface for game updates.
      @param index The index of the game runner.
+     @param executor The workers (or, in the thread-per-game modes, the threads) that run the game iterations.
+     @param mode How the game is run.
      */
-    public GameRunner(Game game, GameCallback callback, int index) {
+    public GameRunner(Game game, GameCallback callback, int index, Executor executor, GameExecutionMode mode) {
         this.game = game;
         this.gameCallback = callback;
         this.index = index;
-        this.lock = new Object();
-        waiting = false;
+        this.executor = executor;
+        this.threadPerGame = mode.isThreadPerGame();
+        this.lock = new ReentrantLock();
+        this.messagesAvailable = lock.newCondition();
+        this.scheduled = new AtomicBoolean(false);
         hasStarted = false;
     }
 
@@ -65,54 +86,94 @@ public class GameRunner extends Thread {
     }
 
     /**
-     Starts the game.
+     Starts the game. The first iteration is run as soon as a worker is free (or, in the thread-per-game modes, on a new thread).
      */
-    public void startGame() { hasStarted = true;}
+    public void startGame() {
+        hasStarted = true;
+        if (threadPerGame)
+            executor.execute(this::runGame);
+        else
+            schedule();
+    }
 
     /**
-     Sends a message to the game.
+     Sends a message to the game. The message is queued in the game's inbox and the runner is handed to a worker if it is not already queued
+     (or, in the thread-per-game modes, the game's thread is woken up).
      @param username The username of the sender.
      @param message The message to send.
+     @return true if the message was queued, false if the game's inbox is full.
      */
-    public void sendMessage(String username, String message) {
-        this.game.sendMessage(username, message);
+    public boolean sendMessage(String username, String message) {
+        if (!game.sendMessage(username, message))
+            return false;
+        if (threadPerGame) {
+            lock.lock();
+            try {
+                messagesAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            schedule();
+        }
+        return true;
     }
 
     /**
-     Wakes up the thread from waiting state.
-     This method is called when the server receives a new message for this game.
+     Hands the runner to a worker, unless it is already queued or running.
      */
-    public void wakeUp() {
-        synchronized (lock) {
-            waiting = false;
-            lock.notify();
-        }
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(this);
     }
 
     /**
-     The main execution method of the thread.
-     It runs the game iterations, updates the callback, and manages the waiting state (the thread waits until receiving messages).
+     Runs one step of the game on a worker.
+     It runs the game iterations over the queued messages and updates the callback.
+     When the game ends, the final scores are processed and the runner becomes ready for a new game.
+     If messages arrived while the step was running, the runner is queued again instead of holding on to the worker.
      */
     @Override
     public void run() {
+        Game current = game;
+        if (hasStarted && !current.isEnded()) {
+            current.nextIteration();
+            gameCallback.onUpdate(current, this);
+            if (current.isEnded()) {
+                current.processEndGame();
+                hasStarted = false;
+                gameCallback.onUpdate(current, this);
+            }
+        }
+        scheduled.set(false);
+        if (hasStarted && game.hasPendingMessages())
+            schedule();
+    }
+
+    /**
+     Runs a whole game on the calling thread (thread-per-game modes).
+     The thread runs the game iterations, updates the callback and waits until the inbox has messages, until the game ends.
+     */
+    private void runGame() {
+        Game current = game;
         do {
-            game.nextIteration();
-            gameCallback.onUpdate(game, this);
-            if (game.isEnded())
+            current.nextIteration();
+            gameCallback.onUpdate(current, this);
+            if (current.isEnded())
                 break;
-            synchronized (lock) {
-                while (waiting) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-                waiting = true;
+            lock.lock();
+            try {
+                while (!current.hasPendingMessages())
+                    messagesAvailable.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
             }
         } while (true);
-        game.processEndGame();
+        current.processEndGame();
         hasStarted = false;
-        gameCallback.onUpdate(game, this);
+        gameCallback.onUpdate(current, this);
     }
 }
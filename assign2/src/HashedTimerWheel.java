@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ The HashedTimerWheel class keeps a large number of timeouts with O(1) scheduling and cancellation.
+ Time is cut into ticks and the wheel has a fixed number of slots; a timeout is kept in the slot of its deadline tick (modulo the number of slots),
+ in a doubly linked list, so cancelling it just unlinks it. Advancing the wheel only visits the slots of the ticks that elapsed,
+ and only the timeouts whose deadline passed are run; the others (deadlines one or more turns of the wheel away) stay in their slot.
+ Deadlines are rounded up to the next tick, so a timeout never runs early but may run up to one tick late.
+ It is not thread-safe; the server only uses it while holding the matchmaking lock.
+ */
+public class HashedTimerWheel {
+    private final long tickNanos;
+    private final Timeout[] slots;
+    private final int mask;
+    private final long origin;
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     The Timeout class is an action scheduled on a HashedTimerWheel.
+     */
+    public static class Timeout {
+        private final Runnable action;
+        private final long deadlineTick;
+        // the wheel while the timeout is linked in one of its slots, null once it was collected or cancelled
+        private HashedTimerWheel wheel;
+        private boolean cancelled = false;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(HashedTimerWheel wheel, Runnable action, long deadlineTick) {
+            this.wheel = wheel;
+            this.action = action;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         Cancels the timeout, if it has not run yet. This also works for a timeout that is already due in the current advance(),
+         e.g. when an earlier action of the same advance() cancels it. Must be called under the same lock as the wheel.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (wheel != null)
+                wheel.unlink(this);
+        }
+
+        /**
+         Checks if the timeout was cancelled.
+         @return true if cancel() was called, false otherwise.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     Constructs a HashedTimerWheel object whose time starts now.
+     @param tickMillis The duration of a tick in milliseconds (the wheel's resolution).
+     @param slots The number of slots of the wheel. It is rounded up to a power of two.
+     */
+    public HashedTimerWheel(long tickMillis, int slots) {
+        int count = 1;
+        while (count < slots)
+            count <<= 1;
+        this.tickNanos = tickMillis * 1000000;
+        this.slots = new Timeout[count];
+        this.mask = count - 1;
+        this.origin = System.nanoTime();
+    }
+
+    /**
+     Schedules an action to run once after the given delay, when the wheel is advanced past its deadline.
+     @param action The action to run.
+     @param delayMillis The delay in milliseconds.
+     @return The timeout, which can be cancelled until it runs.
+     */
+    public Timeout schedule(Runnable action, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis * 1000000 + tickNanos - 1) / tickNanos);
+        long deadline = Math.max(currentTick, (System.nanoTime() - origin) / tickNanos) + ticks;
+        Timeout timeout = new Timeout(this, action, deadline);
+        int slot = (int) (deadline & mask);
+        timeout.next = slots[slot];
+        if (slots[slot] != null)
+            slots[slot].prev = timeout;
+        slots[slot] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     Runs every timeout whose deadline has passed, unless it is cancelled before its turn. The actions may schedule or cancel timeouts.
+     */
+    public void advance() {
+        long target = (System.nanoTime() - origin) / tickNanos;
+        List<Timeout> due = new ArrayList<>();
+        if (target - currentTick >= slots.length) {
+            // a whole turn elapsed: every slot has to be visited once
+            for (int slot = 0; slot < slots.length; slot++)
+                collect(slot, target, due);
+            currentTick = target;
+        } else {
+            while (currentTick < target) {
+                currentTick++;
+                collect((int) (currentTick & mask), currentTick, due);
+            }
+        }
+        for (Timeout timeout : due) {
+            if (timeout.cancelled)
+                continue;
+            try {
+                timeout.action.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error: timeout failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     Gets the number of pending timeouts.
+     @return The number of timeouts that have neither run nor been cancelled.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     Checks if the wheel has no pending timeout.
+     @return true if no timeout is pending, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void collect(int slot, long tick, List<Timeout> due) {
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadlineTick <= tick) {
+                unlink(timeout);
+                due.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        int slot = (int) (timeout.deadlineTick & mask);
+        if (timeout.prev == null)
+            slots[slot] = timeout.next;
+        else
+            timeout.prev.next = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.wheel = null;
+        size--;
+    }
+}
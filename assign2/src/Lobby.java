@@ -0,0 +1,149 @@
+/**
+ The Lobby class holds the matchmaking state of one game server: its game runner, the rank window it accepts and the number of players waiting in it.
+ A lobby goes through the states OPEN (no players, no window), FILLING (players are joining), RUNNING (its game is being played)
+ and RESET (its game ended and it waits to be dispatched again), after which it is OPEN again.
+ Every transition and every update of the counters runs under the lobby's lock and checks the current state,
+ so a transition requested from a stale state is refused instead of overwriting a newer one.
+ */
+public class Lobby {
+    public enum State {
+        OPEN, FILLING, RUNNING, RESET
+    }
+
+    private final int index;
+    private final GameRunner runner;
+    private State state = State.OPEN;
+    private int rankLow = 0;
+    private int rankHigh = 0;
+    private int occupancy = 0;
+
+    /**
+     Constructs an open Lobby object.
+     @param index The index of the game server.
+     @param runner The runner of the game server's games.
+     */
+    public Lobby(int index, GameRunner runner) {
+        this.index = index;
+        this.runner = runner;
+    }
+
+    /**
+     Opens the lobby for players of the given rank window (OPEN to FILLING).
+     @param low The lowest rank accepted.
+     @param high The highest rank accepted.
+     @return true if the lobby was open, false otherwise (and nothing changes).
+     */
+    public synchronized boolean open(int low, int high) {
+        if (state != State.OPEN)
+            return false;
+        state = State.FILLING;
+        rankLow = low;
+        rankHigh = high;
+        occupancy = 0;
+        return true;
+    }
+
+    /**
+     Adds a player to the filling lobby.
+     @return The new number of players, or -1 if the lobby is not filling.
+     */
+    public synchronized int join() {
+        if (state != State.FILLING)
+            return -1;
+        return ++occupancy;
+    }
+
+    /**
+     Removes a player from the filling lobby. When the last player leaves, the lobby is open again.
+     @return The new number of players, or -1 if the lobby is not filling.
+     */
+    public synchronized int leave() {
+        if (state != State.FILLING)
+            return -1;
+        occupancy = Math.max(occupancy - 1, 0);
+        if (occupancy == 0)
+            state = State.OPEN;
+        return occupancy;
+    }
+
+    /**
+     Widens the rank window of the filling lobby on both sides. The window never goes below rank 0.
+     @param amount The number of rank points to add on each side.
+     @return true if the window was widened, false if the lobby is not filling.
+     */
+    public synchronized boolean widen(int amount) {
+        if (state != State.FILLING)
+            return false;
+        rankLow = Math.max(rankLow - amount, 0);
+        rankHigh += amount;
+        return true;
+    }
+
+    /**
+     Marks the lobby's game as started (FILLING to RUNNING).
+     @return true if the lobby was filling, false otherwise.
+     */
+    public synchronized boolean start() {
+        if (state != State.FILLING)
+            return false;
+        state = State.RUNNING;
+        return true;
+    }
+
+    /**
+     Marks the lobby's game as ended (RUNNING to RESET). Called by the thread that ran the game's last iteration.
+     @return true if the lobby was running, false otherwise.
+     */
+    public synchronized boolean finish() {
+        if (state != State.RUNNING)
+            return false;
+        state = State.RESET;
+        return true;
+    }
+
+    /**
+     Frees the lobby after its game ended (RESET to OPEN), dropping its players and its rank window.
+     @return true if the lobby was reset, false otherwise.
+     */
+    public synchronized boolean reopen() {
+        if (state != State.RESET)
+            return false;
+        state = State.OPEN;
+        occupancy = 0;
+        return true;
+    }
+
+    /**
+     Checks if the lobby accepts a player of the given rank, possibly out of its window by a tolerance (that grows while the player waits).
+     @param rank The rank of the player.
+     @param tolerance How far outside the window the rank may be.
+     @return true if the lobby is filling and the rank is at most the tolerance away from its window, false otherwise.
+     */
+    public synchronized boolean accepts(int rank, int tolerance) {
+        return state == State.FILLING && rankLow - tolerance <= rank && rank <= rankHigh + tolerance;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public GameRunner getRunner() {
+        return runner;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getRankLow() {
+        return rankLow;
+    }
+
+    public synchronized int getRankHigh() {
+        return rankHigh;
+    }
+
+    public synchronized int getOccupancy() {
+        return occupancy;
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.Comparator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ The LobbyIndex class indexes the lobbies that are filling by rank, and the open lobbies by index.
+ The rank axis is cut into fixed-width buckets. A filling lobby is registered in every bucket its rank window overlaps,
+ and every bucket orders its lobbies by occupancy (fullest first) and then by index,
+ so the fullest lobby that accepts a rank is found in O(log n) from the rank's bucket instead of by sorting all the lobbies.
+ Open lobbies are kept in index order, so the first open one is also found in O(log n).
+ Lobbies that are filling are only changed through the index, which keeps them registered under their current window and occupancy.
+ It is not thread-safe; the server only uses it while holding the matchmaking lock.
+ */
+public class LobbyIndex {
+    private static final Comparator<Lobby> byIndex = Comparator.comparingInt(Lobby::getIndex);
+    private static final Comparator<Lobby> fullestFirst = Comparator.comparingInt(Lobby::getOccupancy).reversed().thenComparing(byIndex);
+
+    private final int bucketWidth;
+    private final TreeMap<Integer, TreeSet<Lobby>> buckets = new TreeMap<>();
+    private final TreeSet<Lobby> open = new TreeSet<>(byIndex);
+
+    /**
+     Constructs a LobbyIndex object.
+     @param lobbies The lobbies to index. They must all be open.
+     @param bucketWidth The width, in rank points, of the buckets of the rank index.
+     */
+    public LobbyIndex(Lobby[] lobbies, int bucketWidth) {
+        this.bucketWidth = bucketWidth;
+        for (Lobby lobby : lobbies)
+            open.add(lobby);
+    }
+
+    /**
+     Finds the fullest filling lobby whose rank window accepts the given rank. Ties are broken by the lowest index.
+     @param rank The rank of the player.
+     @return The lobby, or null if no filling lobby accepts the rank.
+     */
+    public Lobby find(int rank) {
+        return find(rank, 0);
+    }
+
+    /**
+     Finds the fullest filling lobby whose rank window is at most the given distance away from a rank. Ties are broken by the lowest index.
+     Only the buckets that overlap the tolerated range are visited.
+     @param rank The rank of the player.
+     @param tolerance How far outside a lobby's window the rank may be (see Lobby.accepts()).
+     @return The lobby, or null if no filling lobby is close enough.
+     */
+    public Lobby find(int rank, int tolerance) {
+        Lobby best = null;
+        int first = Math.floorDiv(rank - tolerance, bucketWidth);
+        int last = Math.floorDiv(rank + tolerance, bucketWidth);
+        for (TreeSet<Lobby> bucket : buckets.subMap(first, true, last, true).values()) {
+            // the bucket also holds lobbies that only overlap part of it
+            for (Lobby lobby : bucket) {
+                if (lobby.accepts(rank, tolerance)) {
+                    if (best == null || fullestFirst.compare(lobby, best) < 0)
+                        best = lobby;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     Computes how far a rank is from the nearest rank window of a filling lobby.
+     A lobby is registered in every bucket its window overlaps, so the nearest window below the rank is in the first non-empty bucket at or below the rank's bucket,
+     and the nearest one above it in the first non-empty bucket at or above it.
+     @param rank The rank of the player.
+     @return 0 if a filling lobby accepts the rank, the number of rank points to the nearest window otherwise, or Integer.MAX_VALUE if no lobby is filling.
+     */
+    public int distance(int rank) {
+        int bucketOfRank = Math.floorDiv(rank, bucketWidth);
+        long nearest = Integer.MAX_VALUE;
+        for (TreeSet<Lobby> bucket : buckets.headMap(bucketOfRank, true).descendingMap().values()) {
+            long below = Long.MAX_VALUE;
+            for (Lobby lobby : bucket) {
+                if (lobby.getRankLow() <= rank)
+                    below = Math.min(below, Math.max(0, (long) rank - lobby.getRankHigh()));
+            }
+            if (below != Long.MAX_VALUE) {
+                nearest = Math.min(nearest, below);
+                break;
+            }
+        }
+        for (TreeSet<Lobby> bucket : buckets.tailMap(bucketOfRank, true).values()) {
+            long above = Long.MAX_VALUE;
+            for (Lobby lobby : bucket) {
+                if (lobby.getRankHigh() >= rank)
+                    above = Math.min(above, Math.max(0, (long) lobby.getRankLow() - rank));
+            }
+            if (above != Long.MAX_VALUE) {
+                nearest = Math.min(nearest, above);
+                break;
+            }
+        }
+        return (int) nearest;
+    }
+
+    /**
+     Finds the open lobby with the lowest index.
+     @return The lobby, or null if no lobby is open.
+     */
+    public Lobby firstOpen() {
+        return open.isEmpty() ? null : open.first();
+    }
+
+    /**
+     Gets the number of open lobbies.
+     @return The number of lobbies with no players and no rank window.
+     */
+    public int openCount() {
+        return open.size();
+    }
+
+    /**
+     Opens a lobby for players of the given rank window (see Lobby.open()).
+     @param lobby The lobby.
+     @param low The lowest rank accepted.
+     @param high The highest rank accepted.
+     */
+    public void open(Lobby lobby, int low, int high) {
+        if (lobby.open(low, high)) {
+            open.remove(lobby);
+            register(lobby);
+        }
+    }
+
+    /**
+     Adds a player to a filling lobby (see Lobby.join()).
+     @param lobby The lobby.
+     @return The new number of players, or -1 if the lobby is not filling.
+     */
+    public int join(Lobby lobby) {
+        unregister(lobby);
+        int count = lobby.join();
+        register(lobby);
+        return count;
+    }
+
+    /**
+     Removes a player from a filling lobby (see Lobby.leave()). The lobby is open again when its last player leaves.
+     @param lobby The lobby.
+     @return The new number of players, or -1 if the lobby is not filling.
+     */
+    public int leave(Lobby lobby) {
+        unregister(lobby);
+        int count = lobby.leave();
+        register(lobby);
+        return count;
+    }
+
+    /**
+     Widens the rank window of a filling lobby (see Lobby.widen()).
+     @param lobby The lobby.
+     @param amount The number of rank points to add on each side.
+     */
+    public void widen(Lobby lobby, int amount) {
+        unregister(lobby);
+        lobby.widen(amount);
+        register(lobby);
+    }
+
+    /**
+     Takes a lobby whose game starts out of the index (see Lobby.start()).
+     @param lobby The lobby.
+     */
+    public void start(Lobby lobby) {
+        unregister(lobby);
+        lobby.start();
+        register(lobby);
+    }
+
+    /**
+     Puts a lobby whose game ended back in the index (see Lobby.reopen()).
+     @param lobby The lobby.
+     */
+    public void reopen(Lobby lobby) {
+        lobby.reopen();
+        register(lobby);
+    }
+
+    /**
+     Indexes a lobby according to its state: by rank if it is filling, by index if it is open.
+     */
+    private void register(Lobby lobby) {
+        Lobby.State state = lobby.getState();
+        if (state == Lobby.State.OPEN) {
+            open.add(lobby);
+        } else if (state == Lobby.State.FILLING) {
+            int last = Math.floorDiv(lobby.getRankHigh(), bucketWidth);
+            for (int b = Math.floorDiv(lobby.getRankLow(), bucketWidth); b <= last; b++)
+                buckets.computeIfAbsent(b, key -> new TreeSet<>(fullestFirst)).add(lobby);
+        }
+    }
+
+    /**
+     Removes a lobby from the index. Must be called before the lobby's window or occupancy changes, while they still match its registration.
+     */
+    private void unregister(Lobby lobby) {
+        Lobby.State state = lobby.getState();
+        if (state == Lobby.State.OPEN) {
+            open.remove(lobby);
+        } else if (state == Lobby.State.FILLING) {
+            int last = Math.floorDiv(lobby.getRankHigh(), bucketWidth);
+            for (int b = Math.floorDiv(lobby.getRankLow(), bucketWidth); b <= last; b++) {
+                TreeSet<Lobby> bucket = buckets.get(b);
+                if (bucket != null && bucket.remove(lobby) && bucket.isEmpty())
+                    buckets.remove(b);
+            }
+        }
+    }
+}
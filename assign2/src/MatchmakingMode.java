@@ -0,0 +1,15 @@
+/**
+ The MatchmakingMode enum lists how the server places the players that are looking for a game.
+ */
+public enum MatchmakingMode {
+    /**
+     Every player is placed on its own as soon as possible: in the fullest lobby that accepts its rank, or in a new lobby,
+     and otherwise in the queue, where its rank window and the lobbies' windows widen while it waits.
+     */
+    GREEDY,
+    /**
+     Players always go through the queue. Periodically, the whole queue is sorted by rank and cut into full games of players with close ranks,
+     which are placed in the open lobbies and started together (see BatchMatchmaker).
+     */
+    BATCH
+}
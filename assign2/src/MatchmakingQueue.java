@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ The MatchmakingQueue class holds the players waiting for a lobby, in arrival order.
+ The players are kept in an intrusive doubly linked list indexed by username, so joining, leaving and polling are O(1).
+ Every player also gets a ticket, and a Fenwick tree over the tickets counts the players still in the queue,
+ so the position of a player is answered in O(log n). When the tickets run out, the live players are renumbered in O(n).
+ Iteration works on a snapshot, so callers may modify the queue while they walk it.
+ */
+public class MatchmakingQueue implements Iterable<String> {
+    private static final int MIN_TICKETS = 16;
+
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private Node head = null;
+    private Node tail = null;
+
+    // Fenwick tree (1-based) with a 1 for every ticket whose player is still queued
+    private int[] tree = new int[MIN_TICKETS + 1];
+    private int nextTicket = 0;
+
+    /**
+     The Node class is the queue entry of one player.
+     */
+    private static class Node {
+        private final String username;
+        private final long queuedAt;
+        private int ticket;
+        private Node prev;
+        private Node next;
+
+        private Node(String username, int ticket) {
+            this.username = username;
+            this.queuedAt = System.currentTimeMillis();
+            this.ticket = ticket;
+        }
+    }
+
+    /**
+     Adds a player at the end of the queue.
+     @param username The username of the player.
+     @return true if the player was added, false if it was already in the queue.
+     */
+    public boolean add(String username) {
+        lock.lock();
+        try {
+            if (nodes.containsKey(username))
+                return false;
+            if (nextTicket == tree.length - 1)
+                renumber();
+            Node node = new Node(username, nextTicket++);
+            update(node.ticket, 1);
+            node.prev = tail;
+            if (tail == null)
+                head = node;
+            else
+                tail.next = node;
+            tail = node;
+            nodes.put(username, node);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Removes a player from the queue.
+     @param username The username of the player.
+     @return true if the player was in the queue, false otherwise.
+     */
+    public boolean remove(String username) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(username);
+            if (node == null)
+                return false;
+            unlink(node);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Removes the player at the head of the queue.
+     @return The username of the player that waited the longest, or null if the queue is empty.
+     */
+    public String poll() {
+        lock.lock();
+        try {
+            if (head == null)
+                return null;
+            Node node = head;
+            nodes.remove(node.username);
+            unlink(node);
+            return node.username;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Checks if a player is in the queue.
+     @param username The username of the player.
+     @return true if the player is in the queue, false otherwise.
+     */
+    public boolean contains(String username) {
+        lock.lock();
+        try {
+            return nodes.containsKey(username);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Retrieves the position of a player in the queue.
+     @param username The username of the player.
+     @return The 1-based position of the player, or 0 if the player is not in the queue.
+     */
+    public int position(String username) {
+        lock.lock();
+        try {
+            Node node = nodes.get(username);
+            return node == null ? 0 : prefixSum(node.ticket);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Retrieves when a player joined the queue.
+     @param username The username of the player.
+     @return The time the player was added, in milliseconds, or -1 if the player is not in the queue.
+     */
+    public long waitingSince(String username) {
+        lock.lock();
+        try {
+            Node node = nodes.get(username);
+            return node == null ? -1 : node.queuedAt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Gets the number of players in the queue.
+     @return The size of the queue.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Checks if the queue is empty.
+     @return true if no player is waiting, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     Takes a snapshot of the queue.
+     @return A copy of the usernames of the queued players, in arrival order.
+     */
+    public List<String> snapshot() {
+        lock.lock();
+        try {
+            List<String> usernames = new ArrayList<>(nodes.size());
+            for (Node node = head; node != null; node = node.next)
+                usernames.add(node.username);
+            return usernames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     Returns an iterator over a snapshot of the queue (see snapshot()).
+     @return An iterator over the usernames of the queued players, in arrival order.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return snapshot().iterator();
+    }
+
+    /**
+     Removes every player from the queue.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            nodes.clear();
+            head = null;
+            tail = null;
+            tree = new int[MIN_TICKETS + 1];
+            nextTicket = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unlink(Node node) {
+        update(node.ticket, -1);
+        if (node.prev == null)
+            head = node.next;
+        else
+            node.prev.next = node.next;
+        if (node.next == null)
+            tail = node.prev;
+        else
+            node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    /**
+     Gives the queued players the tickets 0..n-1, in order, and rebuilds the Fenwick tree with room for as many new players.
+     */
+    private void renumber() {
+        int capacity = Math.max(MIN_TICKETS, nodes.size() * 2);
+        tree = new int[capacity + 1];
+        int ticket = 0;
+        for (Node node = head; node != null; node = node.next) {
+            node.ticket = ticket++;
+            tree[ticket] = 1;
+        }
+        nextTicket = ticket;
+        // linear-time Fenwick construction: push every partial sum to its parent
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity)
+                tree[parent] += tree[i];
+        }
+    }
+
+    private void update(int ticket, int delta) {
+        for (int i = ticket + 1; i < tree.length; i += i & -i)
+            tree[i] += delta;
+    }
+
+    private int prefixSum(int ticket) {
+        int sum = 0;
+        for (int i = ticket + 1; i > 0; i -= i & -i)
+            sum += tree[i];
+        return sum;
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ The RankJournal class stores the ranks as a binary snapshot plus an append-only journal of the rank changes made after it.
+ The journal owns the in-memory ranks: a change is applied to them and queued in one step, and is then appended by a journal thread,
+ which writes every change queued since its last pass and syncs the journal once per batch (group commit);
+ a change is acknowledged, and the actions waiting for it are run, only once its batch is synced, so a crash never loses an acknowledged change.
+ If a batch cannot be written, it is retried after a delay that doubles up to MAX_RETRY_DELAY.
+ When the journal grows past COMPACT_BYTES, the journal thread starts a new journal generation and writes a compacted snapshot of the ranks,
+ copied together with the batch that fills the journal, after which the previous journal is deleted.
+ On startup the latest snapshot is memory-mapped and only the journals written after it (at most about COMPACT_BYTES) are replayed. A journal whose tail was torn by a crash
+ is truncated after its last complete record. A legacy text ranks file is imported once, when there is no snapshot or journal yet.
+
+ Files, for a base path such as db/ranks:
+ - db/ranks.snapshot: magic, version, generation, count, then (name length, UTF-8 name, rank) per player, then a CRC32 of all the previous bytes.
+ - db/ranks-generation.journal: (name length, UTF-8 name, rank delta, CRC32 of the previous fields) per change made after the snapshot of that generation.
+ */
+public class RankJournal {
+    private static final int SNAPSHOT_MAGIC = 0x524E4B53;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long FLUSH_INTERVAL = 5;
+    private static final long MAX_RETRY_DELAY = 5000;
+    private static final long COMPACT_BYTES = 4 * 1024 * 1024;
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final String baseName;
+    private final Path snapshotFile;
+
+    // the current ranks, including the changes not yet synced; changed together with the pending changes, under this
+    private final RankMap ranks = new RankMap();
+
+    private long generation;
+    private FileChannel journal;
+    private long journalBytes;
+    private ByteBuffer encoded = ByteBuffer.allocate(64 * 1024);
+
+    // changes and actions queued since the last batch, guarded by this
+    private List<String> pendingNames = new ArrayList<>();
+    private List<Integer> pendingDeltas = new ArrayList<>();
+    private List<Runnable> pendingActions = new ArrayList<>();
+    private boolean closed = false;
+
+    private final Thread writer;
+
+    /**
+     Constructs a RankJournal object: recovers the ranks from the snapshot and journals (or imports the legacy file) and starts the journal thread.
+     @param basePath The path of the rank files, without extension (e.g. db/ranks).
+     @param legacyFileName The legacy text ranks file, with one "username:rank" line per player, imported if there are no rank files yet.
+     @throws IOException If the rank files cannot be read or are corrupted.
+     */
+    public RankJournal(String basePath, String legacyFileName) throws IOException {
+        Path base = Paths.get(basePath).toAbsolutePath();
+        this.directory = base.getParent();
+        this.baseName = base.getFileName().toString();
+        this.snapshotFile = directory.resolve(baseName + ".snapshot");
+        Files.createDirectories(directory);
+        recover(Paths.get(legacyFileName));
+        writer = new Thread(this::runWriter, "rank-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     Gets the current ranks. They can be read at any time, but must only be changed through add() and put().
+     @return The ranks kept by the journal.
+     */
+    public RankMap getRanks() {
+        return ranks;
+    }
+
+    /**
+     Adds a value to a player's rank and appends the change to the journal. The change is synced within FLUSH_INTERVAL milliseconds.
+     @param username The username.
+     @param delta The value added to the player's rank (a new player starts from 0).
+     @return The new rank.
+     */
+    public synchronized int add(String username, int delta) {
+        int rank = ranks.addAndGet(username, delta);
+        queue(username, delta);
+        return rank;
+    }
+
+    /**
+     Sets a player's rank and appends the change to the journal, like add().
+     @param username The username.
+     @param rank The new rank.
+     */
+    public synchronized void put(String username, int rank) {
+        int delta = rank - ranks.get(username, 0);
+        ranks.put(username, rank);
+        queue(username, delta);
+    }
+
+    private void queue(String username, int delta) {
+        pendingNames.add(username);
+        pendingDeltas.add(delta);
+        if (pendingNames.size() == 1)
+            notify();
+    }
+
+    /**
+     Runs an action on the journal thread once all the changes appended so far are synced.
+     @param action The action to run.
+     */
+    public synchronized void whenDurable(Runnable action) {
+        pendingActions.add(action);
+        notify();
+    }
+
+    /**
+     Syncs the pending changes, runs the pending actions and stops the journal thread.
+     If the last batch cannot be synced, its actions are not run.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notify();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     The journal thread's loop. Waits for changes, lets the batch fill up for FLUSH_INTERVAL milliseconds (or for the retry delay after a failed batch)
+     and then writes and syncs it.
+     */
+    private void runWriter() {
+        long delay = FLUSH_INTERVAL;
+        while (true) {
+            List<String> names;
+            List<Integer> deltas;
+            List<Runnable> actions;
+            RankMap snapshot = null;
+            boolean last;
+            synchronized (this) {
+                try {
+                    while (pendingNames.isEmpty() && pendingActions.isEmpty() && !closed)
+                        wait();
+                    if (!pendingNames.isEmpty()) {
+                        long deadline = System.currentTimeMillis() + delay;
+                        long remaining;
+                        while (!closed && (remaining = deadline - System.currentTimeMillis()) > 0)
+                            wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                names = pendingNames;
+                deltas = pendingDeltas;
+                actions = pendingActions;
+                pendingNames = new ArrayList<>();
+                pendingDeltas = new ArrayList<>();
+                pendingActions = new ArrayList<>();
+                last = closed;
+                // the ranks match the journal once this batch is written, so they are the snapshot of the next generation
+                if (!names.isEmpty() && journalBytes >= COMPACT_BYTES)
+                    snapshot = ranks.copy();
+            }
+            if (!names.isEmpty()) {
+                try {
+                    write(names, deltas);
+                } catch (IOException e) {
+                    System.out.println("Error: unable to save " + names.size() + " rank changes to the journal, retrying in " + delay + " ms!");
+                    // the actions wait for a later batch that is actually synced
+                    retry(names, deltas, actions);
+                    delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+                    if (last)
+                        break;
+                    continue;
+                }
+                delay = FLUSH_INTERVAL;
+                if (snapshot != null) {
+                    try {
+                        compact(snapshot);
+                    } catch (IOException e) {
+                        System.out.println("Error: unable to compact the rank journal!");
+                    }
+                }
+            }
+            for (Runnable action : actions)
+                action.run();
+            if (last)
+                break;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Error: unable to close the rank journal!");
+        }
+    }
+
+    /**
+     Queues the changes and actions of a failed batch again, ahead of the newer ones, so that the next batch retries them
+     and the actions only run once the changes are synced.
+     */
+    private synchronized void retry(List<String> names, List<Integer> deltas, List<Runnable> actions) {
+        names.addAll(pendingNames);
+        deltas.addAll(pendingDeltas);
+        actions.addAll(pendingActions);
+        pendingNames = names;
+        pendingDeltas = deltas;
+        pendingActions = actions;
+    }
+
+    /**
+     Encodes a batch of changes, appends it to the journal and syncs it.
+     */
+    private void write(List<String> names, List<Integer> deltas) throws IOException {
+        encoded.clear();
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            if (encoded.remaining() < Short.BYTES + name.length + 2 * Integer.BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(encoded.capacity() * 2, encoded.position() + name.length + 10));
+                encoded.flip();
+                larger.put(encoded);
+                encoded = larger;
+            }
+            int start = encoded.position();
+            encoded.putShort((short) name.length);
+            encoded.put(name);
+            encoded.putInt(deltas.get(i));
+            crc.reset();
+            crc.update(encoded.array(), start, encoded.position() - start);
+            encoded.putInt((int) crc.getValue());
+        }
+        encoded.flip();
+        long position = journalBytes;
+        try {
+            while (encoded.hasRemaining())
+                journal.write(encoded);
+            journal.force(false);
+            journalBytes = journal.position();
+        } catch (IOException e) {
+            // drop the partially written batch, so that it is not replayed twice
+            journal.truncate(position);
+            journal.position(position);
+            throw e;
+        }
+    }
+
+    /**
+     Starts a new journal generation and writes a snapshot of all the ranks, then deletes the previous journal.
+     If a crash happens before the snapshot is in place, both journals are replayed on top of the previous snapshot.
+     @param snapshot The ranks after the last change written to the current journal.
+     */
+    private void compact(RankMap snapshot) throws IOException {
+        long previous = generation;
+        openJournal(previous + 1);
+        writeSnapshot(previous + 1, snapshot);
+        Files.deleteIfExists(journalFile(previous));
+    }
+
+    private void openJournal(long newGeneration) throws IOException {
+        if (journal != null)
+            journal.close();
+        generation = newGeneration;
+        journal = FileChannel.open(journalFile(newGeneration), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journalBytes = journal.size();
+        journal.position(journalBytes);
+    }
+
+    /**
+     Writes the snapshot to a temporary file, syncs it and atomically replaces the previous snapshot with it.
+     */
+    private void writeSnapshot(long snapshotGeneration, RankMap snapshot) throws IOException {
+        Path temporaryFile = directory.resolve(baseName + ".snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            CRC32 crc = new CRC32();
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(snapshotGeneration).putInt(snapshot.size());
+            try {
+                snapshot.forEach((username, rank) -> {
+                    byte[] name = username.getBytes(StandardCharsets.UTF_8);
+                    try {
+                        if (buffer.remaining() < Short.BYTES + name.length + Integer.BYTES)
+                            drain(channel, buffer, crc);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    buffer.putShort((short) name.length).put(name).putInt(rank);
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            drain(channel, buffer, crc);
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     Rebuilds the ranks from the snapshot and the journals written after it, or imports the legacy file on the first run.
+     */
+    private void recover(Path legacyFile) throws IOException {
+        TreeMap<Long, Path> journals = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, baseName + "-*" + JOURNAL_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    journals.put(Long.parseLong(name.substring(baseName.length() + 1, name.length() - JOURNAL_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    System.out.println("Error: ignoring unknown rank journal " + file + "!");
+                }
+            }
+        }
+
+        long snapshotGeneration = 0;
+        if (Files.exists(snapshotFile)) {
+            snapshotGeneration = readSnapshot();
+        } else if (journals.isEmpty() && Files.exists(legacyFile)) {
+            importLegacy(legacyFile);
+            writeSnapshot(0, ranks);
+            System.out.println("Imported " + ranks.size() + " ranks from " + legacyFile);
+        }
+
+        long latest = snapshotGeneration;
+        for (Map.Entry<Long, Path> journalEntry : journals.entrySet()) {
+            if (journalEntry.getKey() < snapshotGeneration) {
+                Files.delete(journalEntry.getValue());
+            } else {
+                replay(journalEntry.getValue());
+                latest = journalEntry.getKey();
+            }
+        }
+        openJournal(latest);
+    }
+
+    /**
+     Loads the snapshot through a memory mapping.
+     @return The generation of the snapshot.
+     */
+    private long readSnapshot() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 4 * Integer.BYTES + Long.BYTES)
+                throw new IOException("Corrupted rank snapshot: " + snapshotFile);
+            MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            ByteBuffer content = snapshot.duplicate();
+            content.limit((int) size - Integer.BYTES);
+            crc.update(content);
+            if ((int) crc.getValue() != snapshot.getInt((int) size - Integer.BYTES)
+                    || snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getInt() != SNAPSHOT_VERSION)
+                throw new IOException("Corrupted rank snapshot: " + snapshotFile);
+            long snapshotGeneration = snapshot.getLong();
+            int count = snapshot.getInt();
+            ranks.reserve(count);
+            byte[] name = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int length = Short.toUnsignedInt(snapshot.getShort());
+                if (name.length < length)
+                    name = new byte[length];
+                snapshot.get(name, 0, length);
+                ranks.put(new String(name, 0, length, StandardCharsets.UTF_8), snapshot.getInt());
+            }
+            return snapshotGeneration;
+        }
+    }
+
+    /**
+     Applies the complete records of a journal to the ranks and truncates a torn tail.
+     */
+    private void replay(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0)
+                return;
+            // the journal is read into the heap rather than mapped, so that its torn tail can be truncated
+            ByteBuffer records = ByteBuffer.allocate((int) size);
+            while (records.hasRemaining() && channel.read(records) != -1) {
+            }
+            records.flip();
+            CRC32 crc = new CRC32();
+            byte[] name = new byte[256];
+            int valid = 0;
+            while (records.remaining() >= Short.BYTES) {
+                int start = records.position();
+                int length = Short.toUnsignedInt(records.getShort());
+                if (records.remaining() < length + 2 * Integer.BYTES)
+                    break;
+                if (name.length < length)
+                    name = new byte[length];
+                records.get(name, 0, length);
+                int delta = records.getInt();
+                ByteBuffer record = records.duplicate();
+                record.position(start).limit(records.position());
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != records.getInt())
+                    break;
+                ranks.addAndGet(new String(name, 0, length, StandardCharsets.UTF_8), delta);
+                valid = records.position();
+            }
+            if (valid < size) {
+                System.out.println("Error: truncating the torn tail of " + file + " (" + (size - valid) + " bytes)!");
+                channel.truncate(valid);
+                channel.force(true);
+            }
+        }
+    }
+
+    private void importLegacy(Path legacyFile) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(legacyFile.toFile()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(":");
+                if (parts.length == 2) {
+                    ranks.put(parts[0], Integer.parseInt(parts[1]));
+                }
+            }
+        }
+    }
+
+    private Path journalFile(long journalGeneration) {
+        return directory.resolve(baseName + "-" + journalGeneration + JOURNAL_SUFFIX);
+    }
+}
@@ -0,0 +1,262 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ The RankMap class is an open-addressing hash map from usernames to int ranks, with no boxing and no per-entry objects.
+ Keys are stored in a probe array (linear probing) and values in a parallel AtomicIntegerArray.
+ Lookups are optimistic reads that only fall back to a read lock if a writer got in the way,
+ rank updates of existing players share the read lock and apply their delta with a CAS, so they never block each other,
+ and only inserting a new player (which may resize the table) takes the write lock. Entries are never removed.
+ */
+public class RankMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table;
+    private volatile int size = 0;
+
+    /**
+     The EntryConsumer interface receives the entries of the map.
+     */
+    public interface EntryConsumer {
+        void accept(String username, int rank);
+    }
+
+    /**
+     The Table class holds the probe arrays. A resize replaces the whole table.
+     */
+    private static class Table {
+        private final String[] keys;
+        private final AtomicIntegerArray values;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new String[capacity];
+            values = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    /**
+     Constructs an empty RankMap object.
+     */
+    public RankMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     Constructs an empty RankMap object that can hold the given number of entries without resizing.
+     @param expectedSize The expected number of entries.
+     */
+    public RankMap(int expectedSize) {
+        table = new Table(capacityFor(expectedSize));
+    }
+
+    /**
+     Gets the number of entries.
+     @return The number of players in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     Retrieves the rank of a player.
+     @param username The username.
+     @param defaultValue The value to return if the player is not in the map.
+     @return The player's rank, or defaultValue if the player is not in the map.
+     */
+    public int get(String username, int defaultValue) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Table current = table;
+            int slot = find(current, username);
+            int value = slot < 0 ? defaultValue : current.values.get(slot);
+            if (lock.validate(stamp))
+                return value;
+        }
+        stamp = lock.readLock();
+        try {
+            Table current = table;
+            int slot = find(current, username);
+            return slot < 0 ? defaultValue : current.values.get(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     Checks if a player is in the map.
+     @param username The username.
+     @return true if the player has a rank, false otherwise.
+     */
+    public boolean containsKey(String username) {
+        long stamp = lock.readLock();
+        try {
+            return find(table, username) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     Atomically adds a delta to the rank of a player. A player that is not in the map is added with a rank of 0 before the delta is applied.
+     @param username The username.
+     @param delta The value to add.
+     @return The new rank.
+     */
+    public int addAndGet(String username, int delta) {
+        long stamp = lock.readLock();
+        try {
+            Table current = table;
+            int slot = find(current, username);
+            if (slot >= 0)
+                return current.values.addAndGet(slot, delta);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        stamp = lock.writeLock();
+        try {
+            Table current = table;
+            int slot = find(current, username);
+            if (slot >= 0)
+                return current.values.addAndGet(slot, delta);
+            insert(username, delta);
+            return delta;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     Sets the rank of a player.
+     @param username The username.
+     @param rank The rank.
+     */
+    public void put(String username, int rank) {
+        long stamp = lock.writeLock();
+        try {
+            Table current = table;
+            int slot = find(current, username);
+            if (slot >= 0)
+                current.values.set(slot, rank);
+            else
+                insert(username, rank);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     Grows the table so that it can hold the given number of entries without resizing again (e.g. before a bulk load).
+     @param expectedSize The expected number of entries.
+     */
+    public void reserve(int expectedSize) {
+        long stamp = lock.writeLock();
+        try {
+            int capacity = capacityFor(expectedSize);
+            if (capacity > table.keys.length)
+                rehash(table, capacity);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     Hands every entry to the consumer. Insertions wait until the iteration is over; rank updates may or may not be seen.
+     @param consumer The consumer of the entries.
+     */
+    public void forEach(EntryConsumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            Table current = table;
+            for (int i = 0; i < current.keys.length; i++) {
+                if (current.keys[i] != null)
+                    consumer.accept(current.keys[i], current.values.get(i));
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     Creates a copy of the map. The copy shares the key strings with this map.
+     @return The copy.
+     */
+    public RankMap copy() {
+        RankMap copy = new RankMap();
+        long stamp = lock.readLock();
+        try {
+            Table current = table;
+            Table copied = new Table(current.keys.length);
+            System.arraycopy(current.keys, 0, copied.keys, 0, current.keys.length);
+            for (int i = 0; i < current.keys.length; i++)
+                copied.values.set(i, current.values.get(i));
+            copy.table = copied;
+            copy.size = size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return copy;
+    }
+
+    /**
+     Finds the slot of a key.
+     @return The slot, or -1 if the key is not in the table.
+     */
+    private static int find(Table current, String username) {
+        int slot = hash(username) & current.mask;
+        String key;
+        while ((key = current.keys[slot]) != null) {
+            if (key.equals(username))
+                return slot;
+            slot = (slot + 1) & current.mask;
+        }
+        return -1;
+    }
+
+    /**
+     Inserts a key that is not in the table, doubling it first if it would be more than 3/4 full. Must hold the write lock.
+     */
+    private void insert(String username, int value) {
+        Table current = table;
+        if ((size + 1) * 4L > current.keys.length * 3L) {
+            current = rehash(current, current.keys.length * 2);
+        }
+        place(current, username, value);
+        size++;
+    }
+
+    /**
+     Moves the entries to a new table of the given capacity. Must hold the write lock.
+     */
+    private Table rehash(Table current, int capacity) {
+        Table larger = new Table(capacity);
+        for (int i = 0; i < current.keys.length; i++) {
+            if (current.keys[i] != null)
+                place(larger, current.keys[i], current.values.get(i));
+        }
+        table = larger;
+        return larger;
+    }
+
+    private static void place(Table target, String username, int value) {
+        int slot = hash(username) & target.mask;
+        while (target.keys[slot] != null)
+            slot = (slot + 1) & target.mask;
+        target.values.set(slot, value);
+        target.keys[slot] = username;
+    }
+
+    private static int hash(String username) {
+        int h = username.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3L < expectedSize * 4L)
+            capacity <<= 1;
+        return capacity;
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ The Reactor class represents an event loop thread with its own Selector.
+ The server's acceptor hands every accepted SocketChannel to one reactor, which then owns it: all reads, writes and closes of that channel happen on the reactor's thread.
+ Work coming from other threads (game broadcasts, lobby notifications, new connections) travels through the reactor's handoff queue.
+ */
+public class Reactor implements Runnable {
+    private final Selector selector;
+    private final Server server;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> handoff = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final int outboundLimit;
+    private final SlowConsumerPolicy policy;
+    private final BufferPool bufferPool;
+    private final List<String> messages = new ArrayList<>();
+
+    /**
+     Constructs a Reactor object.
+     @param server The server that handles the messages received by the reactor.
+     @param index The index of the reactor, used to name its thread.
+     @param outboundLimit The maximum number of bytes queued for each client of the reactor.
+     @param policy What to do with clients that exceed the outbound limit.
+     @param bufferPool The pool that the reactor's connections lease their buffers from. It is confined to the reactor thread.
+     @throws IOException If the selector cannot be opened.
+     */
+    public Reactor(Server server, int index, int outboundLimit, SlowConsumerPolicy policy, BufferPool bufferPool) throws IOException {
+        this.server = server;
+        this.bufferPool = bufferPool;
+        this.outboundLimit = outboundLimit;
+        this.policy = policy;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "reactor-" + index);
+        bufferPool.setOwner(thread);
+    }
+
+    /**
+     Starts the reactor thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     Gets the pool that the reactor's connections lease their buffers from. Must only be used on the reactor thread.
+     @return The buffer pool.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     Checks if the caller is running on this reactor's thread.
+     @return true if the current thread is the reactor thread, false otherwise.
+     */
+    public boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     Hands a task over to the reactor. The task runs on the reactor thread, in the order it was submitted.
+     Safe to call from any thread.
+     @param task The task to run.
+     */
+    public void execute(Runnable task) {
+        handoff.add(task);
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    /**
+     Hands a newly accepted channel over to the reactor, which registers it on its selector and greets the client.
+     @param socketChannel The accepted socket channel.
+     */
+    public void register(SocketChannel socketChannel) {
+        execute(() -> {
+            try {
+                socketChannel.configureBlocking(false);
+                Connection connection = new Connection(socketChannel, this, outboundLimit, policy);
+                connection.setKey(socketChannel.register(selector, SelectionKey.OP_READ, connection));
+                server.handleConnect(connection);
+            } catch (ClosedChannelException e) {
+                System.out.println("Error: client disconnected before being registered!");
+            } catch (IOException e) {
+                System.out.println("Error: unable to register client!");
+            }
+        });
+    }
+
+    /**
+     Disconnects a client: the server cleans up the client's state and the channel is closed.
+     Does nothing if the connection is already closed. Must be called on the reactor thread.
+     @param connection The connection to close.
+     */
+    public void disconnect(Connection connection) {
+        if (!connection.isOpen())
+            return;
+        try {
+            server.handleDisconnect(connection);
+        } catch (IOException e) {
+            System.out.println("Error: unable to clean up after " + connection + ": " + e.getMessage());
+        }
+        connection.close();
+    }
+
+    /**
+     The main execution method of the reactor.
+     It blocks in select() until a channel is readable or writable or a task is handed over, then processes them.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                if (handoff.isEmpty())
+                    selector.select();
+                else
+                    selector.selectNow();
+            } catch (IOException e) {
+                System.out.println("Error: reactor selector failed: " + e.getMessage());
+                return;
+            }
+            wakeupPending.set(false);
+
+            Runnable task;
+            while ((task = handoff.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Error: reactor task failed: " + e.getMessage());
+                }
+            }
+
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && key.isWritable())
+                    connection.flush();
+                if (key.isValid() && key.isReadable())
+                    read(connection);
+            }
+        }
+    }
+
+    /**
+     Reads the bytes available on a connection and handles every complete message they contain, in the order they were sent.
+     @param connection The readable connection.
+     */
+    private void read(Connection connection) {
+        SocketChannel socketChannel = connection.getChannel();
+        FrameCodec codec = connection.getCodec();
+        messages.clear();
+        int numRead = -1;
+        if (socketChannel.isOpen()) {
+            try {
+                numRead = codec.read(socketChannel);
+                String message;
+                while ((message = codec.nextFrame()) != null) {
+                    messages.add(message.trim());
+                }
+            } catch (IOException ioException) {
+                numRead = -1;
+            }
+        }
+        try {
+            for (String message : messages) {
+                if (!connection.isOpen())
+                    break;
+                server.handleMessage(connection, message);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: unable to handle message from " + connection + ": " + e.getMessage());
+        }
+        if (numRead == -1)
+            disconnect(connection);
+    }
+}
@@ -0,0 +1,84 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ The Responses class holds the constant protocol responses, already encoded as read-only frames.
+ Hot paths send them with duplicate(), so they are encoded once per server run instead of once per send.
+ It also builds the templated "Waiting for players [x / y] Server #n" notices from pre-encoded fragments and a small digit formatter,
+ so that no String is created for them.
+ */
+public final class Responses {
+    public static final ByteBuffer WELCOME = frame(Server.welcomeMessage);
+    public static final ByteBuffer HELP = frame(Server.usageInstructions);
+    public static final ByteBuffer GAME_STARTING = frame("Game Starting!\n" + Game.welcomeMessage);
+    public static final ByteBuffer LOGOUT_SUCCESSFUL = frame("Logout successful!");
+    public static final ByteBuffer INVALID_TOKEN = frame("Invalid token!");
+    public static final ByteBuffer ALREADY_LOGGED_IN = frame("Error: You are already logged in!");
+    public static final ByteBuffer AUTH_PENDING = frame("Error: Please wait until your previous request is answered!");
+    public static final ByteBuffer AUTH_FAILED = frame("Error: Unable to process your request, please try again!");
+    public static final ByteBuffer GAME_BUSY = frame("Error: The game is busy, please try again!");
+    public static final ByteBuffer STILL_IN_QUEUE = frame("Still in queue! Relaxing the rank match.");
+    public static final ByteBuffer USAGE_LOGIN = frame("Usage: login <username> <password>");
+    public static final ByteBuffer USAGE_REGISTER = frame("Usage: register <username> <password>");
+    public static final ByteBuffer USAGE_LOGOUT = frame("Usage: logout <token>");
+
+    // fragments of the "Waiting for players" template (not framed)
+    private static final byte[] WAITING_PREFIX = "Waiting for players [".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WAITING_SEPARATOR = " / ".getBytes(StandardCharsets.UTF_8);
+    public static final byte[] SERVER_SUFFIX = "] Server #".getBytes(StandardCharsets.UTF_8);
+    public static final byte[] GAME_SERVER_SUFFIX = "] GameServer #".getBytes(StandardCharsets.UTF_8);
+
+    private Responses() {
+    }
+
+    /**
+     Writes a "Waiting for players [count / total] Server #server" frame into the given buffer.
+     @param frame The buffer to write the frame into (usually leased from a BufferPool). It is flipped, ready to be written.
+     @param count The number of players in the lobby.
+     @param total The number of players needed to start the game.
+     @param suffix The fragment between the counters and the server number (SERVER_SUFFIX or GAME_SERVER_SUFFIX).
+     @param server The index of the game server.
+     @return The frame buffer.
+     */
+    public static ByteBuffer waitingForPlayers(ByteBuffer frame, int count, int total, byte[] suffix, int server) {
+        frame.clear();
+        frame.position(FrameCodec.HEADER_SIZE);
+        frame.put(WAITING_PREFIX);
+        putDecimal(frame, count);
+        frame.put(WAITING_SEPARATOR);
+        putDecimal(frame, total);
+        frame.put(suffix);
+        putDecimal(frame, server);
+        frame.putInt(0, frame.position() - FrameCodec.HEADER_SIZE);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     Writes the decimal representation of a number, as ASCII digits, at the buffer's position.
+     @param buffer The buffer to write into.
+     @param value The number to write.
+     */
+    public static void putDecimal(ByteBuffer buffer, int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            if (value == Integer.MIN_VALUE) {
+                buffer.put((byte) '2');
+                value = -147483648;
+            }
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    private static ByteBuffer frame(String message) {
+        return FrameCodec.encode(message).asReadOnlyBuffer();
+    }
+}
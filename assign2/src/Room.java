@@ -0,0 +1,84 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ The Room class indexes the members of one game server: the players waiting for its game to start and the players of its running game.
+ It is kept up to date when players join, leave and reconnect, so that broadcasts only visit the room's members instead of every connected client.
+ A broadcast is encoded once and the same read-only frame is shared by the outbound queues of all the members.
+ */
+public class Room {
+    private final List<String> usernames = new ArrayList<>();
+    private final List<Connection> connections = new ArrayList<>();
+
+    /**
+     Adds a player to the room. If the player is already a member, its connection is replaced (e.g. after a reconnection).
+     @param username The username of the player.
+     @param connection The player's connection.
+     */
+    public synchronized void join(String username, Connection connection) {
+        int i = usernames.indexOf(username);
+        if (i == -1) {
+            usernames.add(username);
+            connections.add(connection);
+        } else {
+            connections.set(i, connection);
+        }
+    }
+
+    /**
+     Removes a player from the room.
+     @param connection The player's connection.
+     */
+    public synchronized void leave(Connection connection) {
+        int i = connections.indexOf(connection);
+        if (i != -1) {
+            usernames.remove(i);
+            connections.remove(i);
+        }
+    }
+
+    /**
+     Removes every player from the room.
+     */
+    public synchronized void clear() {
+        usernames.clear();
+        connections.clear();
+    }
+
+    /**
+     Retrieves the connection of a member.
+     @param username The username of the player.
+     @return The player's connection, or null if the player is not a member.
+     */
+    public synchronized Connection getConnection(String username) {
+        int i = usernames.indexOf(username);
+        return i == -1 ? null : connections.get(i);
+    }
+
+    /**
+     Retrieves the usernames of the members, in the order they joined.
+     @return A copy of the members' usernames.
+     */
+    public synchronized List<String> getUsernames() {
+        return new ArrayList<>(usernames);
+    }
+
+    /**
+     Sends a message to every member. The message is encoded once for the whole room.
+     @param message The message to send.
+     */
+    public void broadcast(String message) {
+        broadcast(FrameCodec.encode(message).asReadOnlyBuffer());
+    }
+
+    /**
+     Sends a frame to every member. Each member's outbound queue gets its own view of the same bytes.
+     @param frame The read-only frame to send. It is not modified.
+     */
+    public synchronized void broadcast(ByteBuffer frame) {
+        for (Connection connection : connections) {
+            connection.enqueue(frame.duplicate());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ The Scheduler class keeps the timed work of an event loop (queue relaxation ticks, game deadlines and tasks posted by other threads) ordered by deadline.
+ The event loop asks for the delay until the next task is due and blocks in select() for that long instead of polling.
+ Whenever a task is scheduled ahead of every pending one, the wakeup action is called so that a blocked loop can recompute its timeout.
+ */
+public class Scheduler {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final Runnable wakeup;
+    private long sequence = 0;
+
+    /**
+     Constructs a Scheduler object.
+     @param wakeup The action that interrupts the event loop (usually Selector::wakeup).
+     */
+    public Scheduler(Runnable wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    /**
+     Schedules an action to run once, as soon as possible, on the event loop thread.
+     This is the path used by other threads (e.g. game runners) to hand work over to the event loop.
+     @param action The action to run.
+     @return The scheduled task.
+     */
+    public Task execute(Runnable action) {
+        return schedule(action, 0);
+    }
+
+    /**
+     Schedules an action to run once after the given delay.
+     @param action The action to run.
+     @param delayMillis The delay in milliseconds.
+     @return The scheduled task.
+     */
+    public Task schedule(Runnable action, long delayMillis) {
+        return add(new Task(action, System.nanoTime() + delayMillis * 1000000, 0));
+    }
+
+    /**
+     Schedules an action to run periodically, with a fixed period between consecutive deadlines.
+     @param action The action to run.
+     @param initialDelayMillis The delay in milliseconds before the first run.
+     @param periodMillis The period in milliseconds.
+     @return The scheduled task.
+     */
+    public Task scheduleAtFixedRate(Runnable action, long initialDelayMillis, long periodMillis) {
+        return add(new Task(action, System.nanoTime() + initialDelayMillis * 1000000, periodMillis * 1000000));
+    }
+
+    /**
+     Computes how long the event loop may block before the next task is due.
+     @return -1 if there is no pending task, 0 if a task is already due, or the number of milliseconds until the next deadline.
+     */
+    public synchronized long nextDelayMillis() {
+        Task next = tasks.peek();
+        while (next != null && next.cancelled) {
+            tasks.poll();
+            next = tasks.peek();
+        }
+        if (next == null)
+            return -1;
+        long remaining = next.deadline - System.nanoTime();
+        if (remaining <= 0)
+            return 0;
+        return Math.max(1, (remaining + 999999) / 1000000);
+    }
+
+    /**
+     Runs every task whose deadline has passed.
+     Periodic tasks are rescheduled for their next deadline. The actions run outside the scheduler's lock, so they may schedule new tasks.
+     */
+    public void runDueTasks() {
+        List<Task> due = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            while (!tasks.isEmpty() && tasks.peek().deadline - now <= 0) {
+                due.add(tasks.poll());
+            }
+        }
+        for (Task task : due) {
+            if (task.cancelled)
+                continue;
+            try {
+                task.action.run();
+            } catch (RuntimeException e) {
+                System.out.println("Error: scheduled task failed: " + e.getMessage());
+            }
+            if (task.period > 0 && !task.cancelled) {
+                synchronized (this) {
+                    task.deadline += task.period;
+                    task.sequence = sequence++;
+                    tasks.add(task);
+                }
+            }
+        }
+    }
+
+    private Task add(Task task) {
+        boolean first;
+        synchronized (this) {
+            task.sequence = sequence++;
+            tasks.add(task);
+            first = tasks.peek() == task;
+        }
+        if (first)
+            wakeup.run();
+        return task;
+    }
+
+    /**
+     The Task class represents an action scheduled on a Scheduler.
+     Tasks with the same deadline run in the order they were scheduled.
+     */
+    public static class Task implements Comparable<Task> {
+        private final Runnable action;
+        private final long period;
+        private long deadline;
+        private long sequence;
+        private volatile boolean cancelled = false;
+
+        private Task(Runnable action, long deadline, long period) {
+            this.action = action;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         Cancels the task. A cancelled task is never run again.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (deadline != other.deadline)
+                return deadline - other.deadline < 0 ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
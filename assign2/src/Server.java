@@ -1,89 +1,172 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Server implements GameCallback {
     public static final int BUFFER_SIZE = 4096;
     private final static int RELAX_MMR = 50;
     private final static int RELAX_AFTER_TIME = 10000;
+    // the lobby and the player each relax by half, so the distance they accept grows by RELAX_MMR every RELAX_AFTER_TIME, as with a single relaxation
+    private final static int RELAX_HALF_MMR = RELAX_MMR / 2;
+    private final static int RELAX_STEP_MMR = 5;
+    private final static int RELAX_LOBBY_STEP_TIME = RELAX_STEP_MMR * RELAX_AFTER_TIME / RELAX_HALF_MMR;
+    private final static int RELAX_TICK = 100;
+    private final static int RELAX_WHEEL_SLOTS = 256;
+    private final static int BATCH_INTERVAL = 1000;
+    private final static int OUTBOUND_LIMIT = 256 * 1024;
+    private final static int BUFFERS_PER_SLAB = 256;
+    private final static int MAX_BUFFER_SLABS = 256;
+    private final static int WAITING_FRAME_SIZE = 64;
+    private final static int DEFAULT_AUTH_WORKERS = 2;
     public final static String welcomeMessage = "Welcome to our server!\nPlease login or register a new account.\nIf you need any help, you can just send the \"help\" message.";
-    private final static CharsetEncoder encoder = (StandardCharsets.UTF_8).newEncoder();
-    private static ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    public final static String usageInstructions = """
+            Usage instructions:
+            Login: login <username> <password>
+            Register: register <username> <password>
+            """;
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
-    private final ExecutorService threadPool;
+    private final Scheduler scheduler;
+    private final Reactor[] reactors;
+    private final Room[] rooms;
+    private int nextReactor = 0;
+    private final ExecutorService gameExecutor;
+    private final ExecutorService authExecutor;
     private final Game gameModel;
-    private final ConcurrentList<Triplet<GameRunner, String, Integer>> gamesAndRanks = new ConcurrentList<>();
+    private final Lobby[] lobbies;
+    // the open and filling lobbies, indexed by rank
+    private final LobbyIndex lobbyIndex;
     private final int playersPerGame;
     private boolean startGame = false;
     private int startGameIdx = -1;
+    // set by gameHandling() when a lobby's "Waiting for players" notice must be sent after the reply
+    private int notifyWaitingIdx = -1;
+    // the "Waiting for players" notices, encoded on first use and shared as read-only frames: [suffix][lobby * (playersPerGame + 1) + count]
+    private final ByteBuffer[][] waitingNotices;
     private final Authentication auth;
-    // channel -> tokens
-    private final ConcurrentHashMap<SocketChannel, String> clientTokens = new ConcurrentHashMap<>();
 
-    // channel -> index of the game where player is playing
-    private final ConcurrentHashMap<SocketChannel, Integer> playing = new ConcurrentHashMap<>();
+    // guards the matchmaking state (lobbies, queue, waiting and reconnecting players), which is shared by all reactors
+    private final ReentrantLock matchmakingLock = new ReentrantLock();
 
-    // channel -> index of the game where player is waiting
-    private final ConcurrentList<String> inQueue = new ConcurrentList<>();
+    // token <-> username <-> connection, owned by auth
+    private final SessionRegistry sessions;
 
-    // channel -> index of the game where player is waiting for other players
-    private final HashMap<SocketChannel, Integer> waitingForPlayers = new HashMap<>();
+    // connection -> index of the game where player is playing
+    private final ConcurrentHashMap<Connection, Integer> playing = new ConcurrentHashMap<>();
+
+    // players waiting for a lobby, in arrival order
+    private final MatchmakingQueue inQueue = new MatchmakingQueue();
+
+    // relaxation deadlines of the filling lobbies and of the queued players, advanced by the acceptor loop while some are pending
+    private final HashedTimerWheel relaxation = new HashedTimerWheel(RELAX_TICK, RELAX_WHEEL_SLOTS);
+    private final HashedTimerWheel.Timeout[] lobbyRelaxation;
+    private final HashMap<String, HashedTimerWheel.Timeout> playerRelaxation = new HashMap<>();
+    // when each queued player was last told it is still in the queue, in milliseconds
+    private final HashMap<String, Long> queueNotices = new HashMap<>();
+    private Scheduler.Task relaxationTick = null;
+
+    // how the players are placed; the batch matchmaker and its notice clock are only used in the BATCH mode
+    private final MatchmakingMode matchmaking;
+    private final BatchMatchmaker batchMatchmaker;
+    private long lastBatchNotice = System.currentTimeMillis();
+
+    // connection -> index of the game where player is waiting for other players
+    private final HashMap<Connection, Integer> waitingForPlayers = new HashMap<>();
 
     // username -> index of the game where player was playing but crashed
     private final HashMap<String, Integer> leftInGame = new HashMap<>();
 
     /**
-     Constructs a Server object with the specified maximum number of games and game model.
+     Constructs a Server object with the specified maximum number of games, game model, number of reactors and number of game workers.
      @param maxGames The maximum number of games that the server can handle simultaneously.
      @param game The game model to be used for each game instance.
+     @param numReactors The number of reactor threads that share the client connections.
+     @param numGameWorkers The number of worker threads that run the games in the ACTOR mode. Games only hold a worker while they process messages.
+     @param numAuthWorkers The number of worker threads that run the login, registration and logout requests.
+     @param gameMode How the games are run (shared workers, or a platform or virtual thread per game).
+     @param policy What to do with clients that read slower than the server writes to them.
+     @param matchmaking How the players are placed in the lobbies (one at a time, or in periodic batches).
      @throws IOException If an I/O error occurs when opening the server socket channel.
      */
-    public Server(int maxGames, Game game) throws IOException {
+    public Server(int maxGames, Game game, int numReactors, int numGameWorkers, int numAuthWorkers, GameExecutionMode gameMode, SlowConsumerPolicy policy, MatchmakingMode matchmaking) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.socket().bind(new InetSocketAddress(8080));
         serverSocketChannel.configureBlocking(false);
-        threadPool = Executors.newFixedThreadPool(maxGames);
+        gameExecutor = gameMode.newExecutor(numGameWorkers);
+        AtomicInteger authWorkerCount = new AtomicInteger();
+        authExecutor = Executors.newFixedThreadPool(numAuthWorkers, task -> new Thread(task, "auth-worker-" + authWorkerCount.getAndIncrement()));
         this.gameModel = game.clone();
+        rooms = new Room[maxGames];
+        lobbies = new Lobby[maxGames];
         for (int i = 0; i < maxGames; i++) {
-            gamesAndRanks.add(new Triplet<>(new GameRunner(gameModel.clone(), this, i), "", 0));
+            lobbies[i] = new Lobby(i, new GameRunner(gameModel.clone(), this, i, gameExecutor, gameMode));
+            rooms[i] = new Room();
         }
+        lobbyIndex = new LobbyIndex(lobbies, 2 * RELAX_MMR);
+        lobbyRelaxation = new HashedTimerWheel.Timeout[maxGames];
         selector = Selector.open();
+        scheduler = new Scheduler(selector::wakeup);
         serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        reactors = new Reactor[numReactors];
+        // every reactor has its own pool, so the slabs are shared out between them
+        int slabsPerReactor = Math.max(1, MAX_BUFFER_SLABS / numReactors);
+        for (int i = 0; i < numReactors; i++) {
+            reactors[i] = new Reactor(this, i, OUTBOUND_LIMIT, policy, new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB, slabsPerReactor));
+        }
         auth = new Authentication("db/users.txt", "db/ranks.txt");
+        sessions = auth.getSessions();
         playersPerGame = Game.getNumPlayers();
+        waitingNotices = new ByteBuffer[2][maxGames * (playersPerGame + 1)];
+        this.matchmaking = matchmaking;
+        batchMatchmaker = new BatchMatchmaker(playersPerGame, 2 * RELAX_MMR, RELAX_MMR, RELAX_AFTER_TIME);
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                auth.clearTokens();
-            } catch (IOException e) {
-                System.out.println("Error: unable to clear authentication tokens!");
-            }
+            auth.clearTokens();
+            auth.close();
         }));
     }
 
     /**
-     Runs the server and handles client connections and incoming messages.
-     The server continuously listens for incoming requests using non-blocking communication channels and performs the necessary actions based on the received messages.
-     It handles client login, registration and logout.
-     It also handles "help" messages and if the server receives an unknown message, it will echo it back to the sender.
-     All gameplay-related interactions are not processed by the server and are simply redirected to the respective game for processing.
-     The server periodically (10 seconds intervals) relaxes the matchmaking queue and starts the games when ready.
+     Constructs a Server object with one reactor and one game worker per available core and two authentication workers, which runs the games as actors, disconnects slow clients and places the players one at a time.
+     @param maxGames The maximum number of games that the server can handle simultaneously.
+     @param game The game model to be used for each game instance.
+     @throws IOException If an I/O error occurs when opening the server socket channel.
+     */
+    public Server(int maxGames, Game game) throws IOException {
+        this(maxGames, game, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), DEFAULT_AUTH_WORKERS, GameExecutionMode.ACTOR, SlowConsumerPolicy.DISCONNECT, MatchmakingMode.GREEDY);
+    }
+
+    /**
+     Runs the server's acceptor loop.
+     The acceptor accepts the incoming connections and hands each one to a reactor (in round-robin order), which then reads and answers its messages.
+     The acceptor also runs the server's timed work: it relaxes the rank windows of the lobbies and of the queued players as they wait
+     (or, in the BATCH matchmaking mode, matches the whole queue every BATCH_INTERVAL milliseconds), and starts the games when ready.
+     Between events, the acceptor blocks in select() until the next scheduled task is due, so an idle server does not use any CPU.
      @throws IOException if an I/O error occurs while running the server.
      */
     public void runServer() throws IOException {
-        long startTime = System.nanoTime();
+        for (Reactor reactor : reactors) {
+            reactor.start();
+        }
+        if (matchmaking == MatchmakingMode.BATCH)
+            scheduler.scheduleAtFixedRate(this::matchBatch, BATCH_INTERVAL, BATCH_INTERVAL);
         while (true) {
-            selector.selectNow();
+            long timeout = scheduler.nextDelayMillis();
+            if (timeout == 0)
+                selector.selectNow();
+            else
+                selector.select(Math.max(timeout, 0));
             Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
 
             while (iterator.hasNext()) {
@@ -93,328 +176,479 @@ public class Server implements GameCallback {
                 if (key.isAcceptable()) {
                     // New client connection
                     SocketChannel socketChannel = serverSocketChannel.accept();
-                    System.out.println("Client connected: " + socketChannel.getRemoteAddress());
-                    socketChannel.configureBlocking(false);
-                    socketChannel.register(selector, SelectionKey.OP_READ);
-                    sendMessage(socketChannel, Server.welcomeMessage);
-                } else if (key.isReadable()) {
-                    // Data received from a client
-                    SocketChannel socketChannel = (SocketChannel) key.channel();
-                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-                    int numRead = -1;
-                    boolean disconected = false;
-                    if (socketChannel.isOpen()) {
-                        try {
-                            numRead = socketChannel.read(buffer);
-                        } catch (IOException ioException) {
-                            disconected = true;
-                        }
-                    }
-                    if (numRead == -1 || disconected) {
-                        int nextReady = -1;
-                        if (playing.containsKey(socketChannel)) nextReady = playing.get(socketChannel);
-                        else if (waitingForPlayers.containsKey(socketChannel)) nextReady = waitingForPlayers.get(socketChannel);
-
-                        if (nextReady != -1) {
-                            if (gamesAndRanks.get(nextReady).getVal3() < playersPerGame) {
-                                gamesAndRanks.get(nextReady).setVal3(Math.max(gamesAndRanks.get(nextReady).getVal3() - 1, 0));
-                                if (gamesAndRanks.get(nextReady).getVal3() == 0) gamesAndRanks.get(nextReady).setVal2("");
-                                playing.remove(socketChannel);
-                                waitingForPlayers.remove(socketChannel);
-                                String m = "Waiting for players [" + gamesAndRanks.get(nextReady).getVal3() + " / " + playersPerGame + "]";
-                                m += " GameServer #" + nextReady;
-                                sendMessageToPlayers(playing, m, nextReady);
-                            } else {
-                                if (playing.containsKey(socketChannel)) {
-                                    int idx = playing.get(socketChannel);
-                                    leftInGame.put(socketToUsername(socketChannel), idx);
-                                    playing.remove(socketChannel);
-                                    waitingForPlayers.remove(socketChannel);
-                                    sendMessageToPlayers(playing, socketToUsername(socketChannel) + " has disconnected!", idx);
-                                }
-                            }
-                        }
-                        auth.invalidateToken(usernameToToken(socketToUsername(socketChannel)));
-                        clientTokens.remove(socketChannel);
-                        System.out.println("Client disconnected: " + socketChannel.getRemoteAddress());
-                        key.cancel();
-                        socketChannel.close();
-                    } else {
-                        buffer.flip();
-                        String message = new String(buffer.array(), 0, buffer.limit()).trim();
-                        buffer.clear();
-                        System.out.println("Message received from " + socketChannel.getRemoteAddress() + ": " + message);
-
-                        if (playing.get(socketChannel) != null && !message.startsWith("logout")) {
-                            int index = playing.get(socketChannel);
-                            gamesAndRanks.get(index).getVal1().sendMessage(socketToUsername(socketChannel), message);
-                            gamesAndRanks.get(index).getVal1().wakeUp();
-                        } else if (message.startsWith("help")) {
-                            String usageInstructions = """
-                                    Usage instructions:
-                                    Login: login <username> <password>
-                                    Register: register <username> <password>
-                                    """;
-                            sendMessage(socketChannel, usageInstructions);
-                        } else if (message.startsWith("register")) {
-                            String[] parts = message.split(" ");
-                            String res;
-                            if (parts.length != 3)
-                                res = "Usage: register <username> <password>";
-                            else {
-                                String username = parts[1];
-                                String password = parts[2];
-                                String tok = auth.registerUser(username, password);
-                                Integer nextReady = getNextReady(username);
-                                if (tok.contains("Error"))
-                                    res = tok;
-                                else {
-                                    res = gameHandling(socketChannel, nextReady, username, tok);
-                                }
-                                if (!res.contains("Error:"))
-                                    clientTokens.put(socketChannel, tok);
-                            }
-                            sendMessage(socketChannel, res);
-                            if (startGame) {
-                                startGame(startGameIdx);
-                                startGame = false;
-                            }
-                        } else if (message.startsWith("login")) {
-                            String res;
-                            String[] parts = message.split(" ");
-                            if (parts.length != 3) {
-                                res = "Usage: login <username> <password>";
-                            } else {
-                                String username = parts[1];
-                                String password = parts[2];
-                                if (!auth.isLoggedIn(username)) {
-                                    String tok = auth.login(username, password);
-                                    if (tok.contains("Error"))
-                                        res = tok;
-                                    else {
-                                        Integer nextReady = getNextReady(username);
-                                        res = gameHandling(socketChannel, nextReady, username, tok);
-                                    }
-                                    if (!res.contains("Error:"))
-                                        clientTokens.put(socketChannel, tok);
-                                } else {
-                                    res = "Error: You are already logged in!";
-                                }
-                            }
-                            sendMessage(socketChannel, res);
-                            if (startGame) {
-                                startGame(startGameIdx);
-                                startGame = false;
-                            }
-
-                        } else if (message.startsWith("logout")) {
-                            String answer;
-                            String[] parts = message.split(" ");
-                            boolean canceled = false;
-                            if (parts.length != 2) {
-                                answer = "Usage: logout <token>";
-                            } else {
-                                String token = parts[1];
-                                if (clientTokens.containsValue(token)) {
-                                    String username = auth.getUserName(token);
-                                    answer = "Logout successful!";
-                                    int nextReady = -1;
-                                    if (playing.containsKey(socketChannel)) nextReady = playing.get(socketChannel);
-                                    else if (waitingForPlayers.containsKey(socketChannel)) nextReady = waitingForPlayers.get(socketChannel);
-
-
-                                    if (nextReady != -1) {
-                                        if (gamesAndRanks.get(nextReady).getVal3() < playersPerGame) {
-                                            gamesAndRanks.get(nextReady).setVal3(Math.max(gamesAndRanks.get(nextReady).getVal3() - 1, 0));
-                                            if (gamesAndRanks.get(nextReady).getVal3() == 0) gamesAndRanks.get(nextReady).setVal2("");
-                                            playing.remove(socketChannel);
-                                            waitingForPlayers.remove(socketChannel);
-                                            String m = "Waiting for players [" + gamesAndRanks.get(nextReady).getVal3() + " / " + playersPerGame + "]";
-                                            m += " GameServer #" + nextReady;
-                                            sendMessageToPlayers(playing, m, nextReady);
-                                        } else {
-                                            if (playing.containsKey(socketChannel)) {
-                                                int idx = playing.get(socketChannel);
-                                                leftInGame.put(username, idx);
-                                                playing.remove(socketChannel);
-                                                waitingForPlayers.remove(socketChannel);
-                                                sendMessageToPlayers(playing, username + " has disconnected!", idx);
-                                            }
-                                        }
-                                    }
-                                    auth.invalidateToken(token);
-                                    clientTokens.remove(socketChannel);
-                                    key.cancel();
-                                    canceled = true;
-                                    System.out.println("Client disconnected: " + socketChannel.getRemoteAddress());
-                                } else {
-                                    answer = "Invalid token!";
-                                }
-                            }
-                            sendMessage(socketChannel, answer);
-                            if (canceled)
-                                socketChannel.close();
-                        } else {
-                            sendMessage(socketChannel, "Unknown message: " + message);
-                        }
-                    }
+                    if (socketChannel == null)
+                        continue;
+                    reactors[nextReactor].register(socketChannel);
+                    nextReactor = (nextReactor + 1) % reactors.length;
                 }
             }
 
-            if ((System.nanoTime() - startTime) / 1000000 > RELAX_AFTER_TIME) {
-                for (int i = 0; i < gamesAndRanks.size(); i++) {
-                    if (!Objects.equals(gamesAndRanks.get(i).getVal2(), "")) {
-                        if (!gamesAndRanks.get(i).getVal1().isReady()) {
-                            gamesAndRanks.get(i).setVal2("");
-                            continue;
-                        }
-                        String[] parts = gamesAndRanks.get(i).getVal2().split("-");
-                        int rank_left = Math.max(Integer.parseInt(parts[0]) - RELAX_MMR, 0);
-                        int rank_right = Integer.parseInt(parts[1]) + RELAX_MMR;
-                        System.out.println("Relaxing queue on Server #" + i + ": " + rank_left + "-" + rank_right);
-                        gamesAndRanks.get(i).setVal2(rank_left + "-" + rank_right);
-
-
-                        for (int j=0;j<inQueue.size();j++) {
-                            String username = inQueue.get(j);
-                            SocketChannel socketChannel = usernameToSocket(username);
-                            if (socketChannel != null) {
-                                Integer nextReady = getNextReady(username);
-                                if (nextReady == -1) {
-                                    sendMessage(socketChannel, "Still in queue! Relaxing the rank match.");
-                                } else {
-                                    String tok = usernameToToken(username);
-                                    String answer = gameHandling(socketChannel, nextReady, username, tok);
-                                    sendMessage(socketChannel, answer.split("\n")[2]);
-                                }
-
-                                if (startGame) {
-                                    startGame(nextReady);
-                                    startGame = false;
-                                }
-                            }
-                        }
+            scheduler.runDueTasks();
+        }
+    }
+
+    /**
+     Greets a new client. Called by the reactor that owns the connection, once the connection is registered.
+     @param connection The new connection.
+     */
+    public void handleConnect(Connection connection) {
+        System.out.println("Client connected: " + connection);
+        sendMessage(connection, Responses.WELCOME);
+    }
+
+    /**
+     Cleans up after a client that closed its connection (or whose connection failed).
+     If the client was waiting for players, the lobby is updated; if it was playing, the other players are notified and the client may reconnect later.
+     Called by the reactor that owns the connection.
+     @param connection The connection that was closed.
+     @throws IOException if an I/O error occurs while invalidating the client's token.
+     */
+    public void handleDisconnect(Connection connection) throws IOException {
+        matchmakingLock.lock();
+        try {
+            int nextReady = -1;
+            if (playing.containsKey(connection)) nextReady = playing.get(connection);
+            else if (waitingForPlayers.containsKey(connection)) nextReady = waitingForPlayers.get(connection);
+
+            if (nextReady != -1) {
+                if (lobbies[nextReady].getState() == Lobby.State.FILLING) {
+                    lobbyIndex.leave(lobbies[nextReady]);
+                    playing.remove(connection);
+                    waitingForPlayers.remove(connection);
+                    rooms[nextReady].leave(connection);
+                    sendWaitingForPlayers(nextReady, Responses.GAME_SERVER_SUFFIX);
+                    // the last player left: the lobby is free for the queued players
+                    if (lobbies[nextReady].getState() == Lobby.State.OPEN && matchmaking == MatchmakingMode.GREEDY)
+                        placeQueued();
+                } else {
+                    if (playing.containsKey(connection)) {
+                        int idx = playing.get(connection);
+                        leftInGame.put(connectionToUsername(connection), idx);
+                        playing.remove(connection);
+                        waitingForPlayers.remove(connection);
+                        rooms[idx].leave(connection);
+                        rooms[idx].broadcast(connectionToUsername(connection) + " has disconnected!");
                     }
                 }
-                startTime = System.nanoTime();
             }
+            String username = connectionToUsername(connection);
+            if (username != null)
+                dequeue(username);
+            auth.invalidateSession(connection);
+        } finally {
+            matchmakingLock.unlock();
         }
+        System.out.println("Client disconnected: " + connection);
     }
 
     /**
-     Retrieves the username associated with the given SocketChannel.
-     @param socketChannel the SocketChannel for which to retrieve the associated username.
-     @return the username associated with the SocketChannel, or null if not found.
+     Handles a message received from a client. Called by the reactor that owns the connection.
+     It handles client login, registration and logout.
+     It also handles "help" messages and if the server receives an unknown message, it will echo it back to the sender.
+     All gameplay-related interactions are not processed by the server and are simply redirected to the respective game for processing.
+     @param connection The connection that sent the message.
+     @param message The message received.
+     @throws IOException if an I/O error occurs while handling the message.
      */
-    private String socketToUsername(SocketChannel socketChannel) {
-        String token = clientTokens.get(socketChannel);
-        return tokenToUsername(token);
+    public void handleMessage(Connection connection, String message) throws IOException {
+        System.out.println("Message received from " + connection + ": " + message);
+
+        if (connection.isAuthPending()) {
+            if (!connection.defer(message))
+                sendMessage(connection, Responses.AUTH_PENDING);
+            return;
+        }
+
+        Integer index = playing.get(connection);
+        if (index != null && !message.startsWith("logout")) {
+            if (!lobbies[index].getRunner().sendMessage(connectionToUsername(connection), message))
+                sendMessage(connection, Responses.GAME_BUSY);
+        } else if (message.startsWith("help")) {
+            sendMessage(connection, Responses.HELP);
+        } else if (message.startsWith("register")) {
+            String[] parts = message.split(" ");
+            if (parts.length != 3) {
+                sendMessage(connection, Responses.USAGE_REGISTER);
+                return;
+            }
+            String username = parts[1];
+            String password = parts[2];
+            // the reply waits until the new account and its starting rank are saved
+            submitAuthAsync(connection, () -> auth.registerUser(username, password, connection)
+                    .thenApply(tok -> () -> completeLogin(connection, username, tok)));
+        } else if (message.startsWith("login")) {
+            String[] parts = message.split(" ");
+            if (parts.length != 3) {
+                sendMessage(connection, Responses.USAGE_LOGIN);
+                return;
+            }
+            String username = parts[1];
+            String password = parts[2];
+            if (auth.isLoggedIn(username)) {
+                sendMessage(connection, Responses.ALREADY_LOGGED_IN);
+                return;
+            }
+            submitAuth(connection, () -> {
+                String tok = auth.login(username, password, connection);
+                return () -> completeLogin(connection, username, tok);
+            });
+        } else if (message.startsWith("logout")) {
+            String[] parts = message.split(" ");
+            if (parts.length != 2) {
+                sendMessage(connection, Responses.USAGE_LOGOUT);
+                return;
+            }
+            String token = parts[1];
+            submitAuth(connection, () -> {
+                String username = auth.logout(token);
+                return () -> completeLogout(connection, username);
+            });
+        } else {
+            sendMessage(connection, "Unknown message: " + message);
+        }
     }
 
+    /**
+     Adds a player to the matchmaking queue and starts its relaxation schedule, unless it is already queued.
+     Must be called while holding the matchmaking lock.
+     @param username The username of the player.
+     */
+    private void enqueue(String username) {
+        if (inQueue.add(username) && matchmaking == MatchmakingMode.GREEDY) {
+            queueNotices.put(username, System.currentTimeMillis());
+            relaxPlayerLater(username);
+        }
+    }
+
+    /**
+     Removes a player from the matchmaking queue and cancels its relaxation schedule.
+     Must be called while holding the matchmaking lock.
+     @param username The username of the player.
+     */
+    private void dequeue(String username) {
+        inQueue.remove(username);
+        queueNotices.remove(username);
+        HashedTimerWheel.Timeout timeout = playerRelaxation.remove(username);
+        if (timeout != null)
+            timeout.cancel();
+    }
+
+    /**
+     Schedules the next relaxation step of a queued player, replacing the pending one.
+     Instead of polling, the step is due when the player can next be placed or told it is still queued, whichever comes first:
+     the gap between the player's tolerance and the nearest filling lobby closes by RELAX_MMR points every RELAX_AFTER_TIME milliseconds
+     (half from the player's tolerance, half from the lobby's widening), so the step runs when that gap is expected to close,
+     and at the latest RELAX_AFTER_TIME milliseconds after the last notice. If the lobbies change in a way that is not predicted
+     (a lobby is opened or freed), placeQueued() reschedules the queued players. A step that runs early only schedules the next one.
+     Must be called while holding the matchmaking lock.
+     @param username The username of the player.
+     */
+    private void relaxPlayerLater(String username) {
+        long now = System.currentTimeMillis();
+        long queuedAt = inQueue.waitingSince(username);
+        if (queuedAt == -1)
+            return;
+        long gap = (long) lobbyIndex.distance(auth.getRank(username)) - tolerance(queuedAt, now);
+        long untilReachable = gap <= 0 ? 0 : (gap * RELAX_AFTER_TIME + RELAX_MMR - 1) / RELAX_MMR;
+        long untilNotice = queueNotices.getOrDefault(username, now) + RELAX_AFTER_TIME - now;
+        long delay = Math.max(RELAX_TICK, Math.min(untilReachable, untilNotice));
+        HashedTimerWheel.Timeout previous = playerRelaxation.put(username, relaxation.schedule(() -> relaxPlayer(username), delay));
+        if (previous != null)
+            previous.cancel();
+        armRelaxation();
+    }
+
+    /**
+     Computes how far outside a lobby's rank window a queued player is accepted: RELAX_MMR / 2 points every RELAX_AFTER_TIME milliseconds of waiting
+     (the lobbies widen by the other half, see relaxLobby()).
+     @param queuedAt When the player joined the queue, in milliseconds.
+     @param now The current time, in milliseconds.
+     @return The player's tolerance, in rank points.
+     */
+    private static int tolerance(long queuedAt, long now) {
+        return (int) Math.min(RELAX_HALF_MMR * (now - queuedAt) / RELAX_AFTER_TIME, Integer.MAX_VALUE / 4);
+    }
 
     /**
-     Retrieves the username associated with the given token.
-     @param token the token for which to retrieve the associated username.
-     @return the username associated with the token, or an empty string if not found.
+     Runs a relaxation step of a queued player: tries to place it with its current tolerance (see tolerance()).
+     If it is still not placed, it is told so at most once every RELAX_AFTER_TIME milliseconds and its next step is scheduled.
+     @param username The username of the player.
      */
-    private String tokenToUsername(String token) {
-        for (Map.Entry<String, String> entry : auth.getTokens().entrySet()) {
-            if (Objects.equals(entry.getValue(), token)) {
-                return entry.getKey();
+    private void relaxPlayer(String username) {
+        playerRelaxation.remove(username);
+        SessionRegistry.Session session = sessions.byUsername(username);
+        if (session == null) {
+            dequeue(username);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long queuedAt = inQueue.waitingSince(username);
+        if (queuedAt == -1)
+            return;
+        Connection connection = session.getConnection();
+        int nextReady = getNextReady(username, tolerance(queuedAt, now));
+        if (nextReady == -1) {
+            if (now - queueNotices.getOrDefault(username, queuedAt) >= RELAX_AFTER_TIME) {
+                sendMessage(connection, Responses.STILL_IN_QUEUE);
+                queueNotices.put(username, now);
             }
+            relaxPlayerLater(username);
+            return;
         }
-        return "";
+        String[] answer = gameHandling(connection, nextReady, username, session.getToken()).split("\n");
+        if (answer.length > 2)
+            sendMessage(connection, answer[2]);
+        completeGameHandling();
+    }
+
+    /**
+     Schedules the next relaxation step of a filling lobby, replacing the pending one.
+     @param lobby The lobby.
+     */
+    private void relaxLobbyLater(Lobby lobby) {
+        int index = lobby.getIndex();
+        if (lobbyRelaxation[index] != null)
+            lobbyRelaxation[index].cancel();
+        lobbyRelaxation[index] = relaxation.schedule(() -> relaxLobby(lobby), RELAX_LOBBY_STEP_TIME);
+        armRelaxation();
     }
 
     /**
+     Runs a relaxation step of a lobby: while it is filling, its rank window widens by RELAX_MMR / 2 points every RELAX_AFTER_TIME milliseconds,
+     in steps of RELAX_STEP_MMR. Together with the players' own tolerance (see relaxPlayer()), the distance between a waiting player and a filling lobby
+     that is accepted grows by RELAX_MMR points every RELAX_AFTER_TIME milliseconds, the same rate as the former global relaxation.
+     The queued players' steps are already timed for this widening (see relaxPlayerLater()).
+     @param lobby The lobby.
+     */
+    private void relaxLobby(Lobby lobby) {
+        lobbyRelaxation[lobby.getIndex()] = null;
+        if (lobby.getState() != Lobby.State.FILLING)
+            return;
+        lobbyIndex.widen(lobby, RELAX_STEP_MMR);
+        relaxLobbyLater(lobby);
+    }
 
-     Retrieves the token associated with the given username.
-     @param username the username for which to retrieve the associated token.
-     @return the token associated with the username, or an empty string if not found.
+    /**
+     Makes sure the acceptor loop advances the relaxation wheel while it has pending timeouts. An idle wheel costs no wakeups.
+     Must be called while holding the matchmaking lock.
      */
-    private String usernameToToken(String username) {
-        String token = "";
-        for (Map.Entry<String, String> entry : auth.getTokens().entrySet()) {
-            if (Objects.equals(entry.getKey(), username)) {
-                token = entry.getValue();
-                break;
+    private void armRelaxation() {
+        if (relaxationTick == null && !relaxation.isEmpty())
+            relaxationTick = scheduler.schedule(this::advanceRelaxation, RELAX_TICK);
+    }
+
+    /**
+     Runs the relaxation steps that are due. Runs on the acceptor loop every RELAX_TICK milliseconds while relaxation timeouts are pending.
+     */
+    private void advanceRelaxation() {
+        matchmakingLock.lock();
+        try {
+            relaxationTick = null;
+            relaxation.advance();
+            armRelaxation();
+        } finally {
+            matchmakingLock.unlock();
+        }
+    }
+
+    /**
+     Runs an authentication request on the auth executor, so that the reactor keeps serving the other connections meanwhile.
+     The request returns its completion, which is posted back to the reactor that owns the connection.
+     Until the completion has run, the connection's next messages are deferred, so they are still handled in the order they were received.
+     @param connection The connection that sent the request.
+     @param request The authentication work, which returns the completion to run on the connection's reactor.
+     */
+    private void submitAuth(Connection connection, Callable<Runnable> request) {
+        submitAuthAsync(connection, () -> CompletableFuture.completedFuture(request.call()));
+    }
+
+    /**
+     Runs an authentication request whose completion is only known later (e.g. once something is saved), like submitAuth().
+     The auth worker is released as soon as the request has started; the completion is posted to the connection's reactor when the future completes.
+     @param connection The connection that sent the request.
+     @param request The authentication work, which returns a future of the completion to run on the connection's reactor.
+     */
+    private void submitAuthAsync(Connection connection, Callable<CompletionStage<Runnable>> request) {
+        connection.setAuthPending(true);
+        Reactor reactor = connection.getReactor();
+        authExecutor.execute(() -> {
+            CompletionStage<Runnable> pending;
+            try {
+                pending = request.call();
+            } catch (Exception e) {
+                pending = CompletableFuture.failedFuture(e);
+            }
+            pending.whenComplete((completion, error) -> {
+                Runnable complete = completion;
+                if (error != null) {
+                    System.out.println("Error: authentication request from " + connection + " failed: " + error.getMessage());
+                    complete = () -> sendMessage(connection, Responses.AUTH_FAILED);
+                }
+                Runnable run = complete;
+                reactor.execute(() -> {
+                    connection.setAuthPending(false);
+                    run.run();
+                    resumeDeferred(connection);
+                });
+            });
+        });
+    }
+
+    /**
+     Handles the messages that a connection received while its authentication request was in flight.
+     Stops early if one of them starts another authentication request.
+     Called by the reactor that owns the connection.
+     @param connection The connection.
+     */
+    private void resumeDeferred(Connection connection) {
+        String message;
+        while (!connection.isAuthPending() && connection.isOpen() && (message = connection.nextDeferred()) != null) {
+            try {
+                handleMessage(connection, message);
+            } catch (IOException e) {
+                System.out.println("Error: unable to handle message from " + connection + ": " + e.getMessage());
             }
         }
+    }
 
-        return token;
+    /**
+     Completes a login or registration on the reactor that owns the connection: places the player and sends the reply.
+     If the connection was closed while the request was in flight, the new session is closed again.
+     @param connection The connection that sent the request.
+     @param username The username of the player.
+     @param tok The new access token, or an error message.
+     */
+    private void completeLogin(Connection connection, String username, String tok) {
+        if (tok.contains("Error")) {
+            sendMessage(connection, tok);
+            return;
+        }
+        if (!connection.isOpen()) {
+            auth.invalidateToken(tok);
+            return;
+        }
+        matchmakingLock.lock();
+        try {
+            // in the BATCH mode every player goes through the queue
+            Integer nextReady = matchmaking == MatchmakingMode.BATCH ? -1 : getNextReady(username);
+            String res = gameHandling(connection, nextReady, username, tok);
+            sendMessage(connection, res);
+            completeGameHandling();
+        } finally {
+            matchmakingLock.unlock();
+        }
     }
 
     /**
-     Retrieves the SocketChannel associated with the given username.
-     @param username the username for which to retrieve the associated SocketChannel.
-     @return the SocketChannel associated with the username, or null if not found.
+     Completes a logout on the reactor that owns the connection: removes the player from its lobby or game, sends the reply and closes the connection.
+     @param connection The connection that sent the request.
+     @param username The username of the player that logged out, or null if the token was not valid.
      */
-    private SocketChannel usernameToSocket(String username) {
-        String token = usernameToToken(username);
-        for (Map.Entry<SocketChannel, String> entry : clientTokens.entrySet()) {
-            if (Objects.equals(entry.getValue(), token)) {
-                return entry.getKey();
+    private void completeLogout(Connection connection, String username) {
+        if (username == null) {
+            sendMessage(connection, Responses.INVALID_TOKEN);
+            return;
+        }
+        matchmakingLock.lock();
+        try {
+            int nextReady = -1;
+            if (playing.containsKey(connection)) nextReady = playing.get(connection);
+            else if (waitingForPlayers.containsKey(connection)) nextReady = waitingForPlayers.get(connection);
+
+            if (nextReady != -1) {
+                if (lobbies[nextReady].getState() == Lobby.State.FILLING) {
+                    lobbyIndex.leave(lobbies[nextReady]);
+                    playing.remove(connection);
+                    waitingForPlayers.remove(connection);
+                    rooms[nextReady].leave(connection);
+                    sendWaitingForPlayers(nextReady, Responses.GAME_SERVER_SUFFIX);
+                    // the last player left: the lobby is free for the queued players
+                    if (lobbies[nextReady].getState() == Lobby.State.OPEN && matchmaking == MatchmakingMode.GREEDY)
+                        placeQueued();
+                } else {
+                    if (playing.containsKey(connection)) {
+                        int idx = playing.get(connection);
+                        leftInGame.put(username, idx);
+                        playing.remove(connection);
+                        waitingForPlayers.remove(connection);
+                        rooms[idx].leave(connection);
+                        rooms[idx].broadcast(username + " has disconnected!");
+                    }
+                }
             }
+            dequeue(username);
+            auth.invalidateSession(connection);
+            System.out.println("Client disconnected: " + connection);
+        } finally {
+            matchmakingLock.unlock();
         }
-        return null;
+        sendMessage(connection, Responses.LOGOUT_SUCCESSFUL);
+        connection.close();
+    }
+
+    /**
+     Retrieves the username associated with the given Connection.
+     @param connection the Connection for which to retrieve the associated username.
+     @return the username associated with the Connection, or null if not found.
+     */
+    private String connectionToUsername(Connection connection) {
+        SessionRegistry.Session session = sessions.byConnection(connection);
+        return session == null ? null : session.getUsername();
     }
 
     /**
      Handles the game logic and interactions for a client.
      Determines the appropriate actions based on the client's status, such as login, reconnection, joining the queue,
      joining a game server, or being placed in the queue.
-     @param socketChannel the SocketChannel associated with the client.
+     The "Waiting for players" notice and the start of a full game are left to completeGameHandling(), which the caller runs after sending the reply.
+     Must be called while holding the matchmaking lock.
+     @param connection the Connection associated with the client.
      @param nextReady the index of the next available game server, or -1 if none are currently available.
      @param username the username of the client.
      @param tok the login token associated with the client.
      @return a message indicating the result of the game handling and any additional instructions or information for the client.
-     @throws IOException if an I/O error occurs while handling the game.
      */
-    private String gameHandling(SocketChannel socketChannel, Integer nextReady, String username, String tok) throws IOException {
+    private String gameHandling(Connection connection, Integer nextReady, String username, String tok) {
         String res;
         res = "Login Token: " + tok + "\nWelcome " + username + "!\n";
         if (leftInGame.containsKey(username)) {
-            sendMessageToPlayers(playing, username + " has reconnected!", leftInGame.get(username));
+            rooms[leftInGame.get(username)].broadcast(username + " has reconnected!");
             res += username + " has reconnected!";
-            playing.put(socketChannel, leftInGame.get(username));
+            playing.put(connection, leftInGame.get(username));
+            rooms[leftInGame.get(username)].join(username, connection);
             leftInGame.remove(username);
         } else {
             if (nextReady.equals(-1)) {
-                if (!inQueue.contains(username)) {
-                    inQueue.add(username);
-                }
-                res += "You are in the Queue!\nPosition in Queue: " + (inQueue.indexOf(username) + 1);
-            } else if (gamesAndRanks.get(nextReady).getVal3() < playersPerGame - 1) {
-                gamesAndRanks.get(nextReady).setVal3(gamesAndRanks.get(nextReady).getVal3() + 1);
-
-                String m = "Waiting for players [" + gamesAndRanks.get(nextReady).getVal3() + " / " + playersPerGame + "]";
-                m += " Server #" + nextReady;
-                res += m;
-                sendMessageToPlayers(playing, m, nextReady);
-                waitingForPlayers.put(socketChannel, nextReady);
-                inQueue.remove(username);
-            } else if (gamesAndRanks.get(nextReady).getVal3() < playersPerGame) {
+                enqueue(username);
+                res += "You are in the Queue!\nPosition in Queue: " + inQueue.position(username);
+            } else if (lobbies[nextReady].getOccupancy() < playersPerGame - 1) {
+                lobbyIndex.join(lobbies[nextReady]);
+                waitingForPlayers.put(connection, nextReady);
+                rooms[nextReady].join(username, connection);
+                dequeue(username);
+                // the new player gets the shared notice too, right after the reply
+                notifyWaitingIdx = nextReady;
+            } else if (lobbies[nextReady].getOccupancy() < playersPerGame) {
                 res += "Connected to Server #" + nextReady + "\n";
-                gamesAndRanks.get(nextReady).setVal3(gamesAndRanks.get(nextReady).getVal3() + 1);
-                Iterator<Map.Entry<SocketChannel, Integer>> iterator = waitingForPlayers.entrySet().iterator();
+                lobbyIndex.join(lobbies[nextReady]);
+                Iterator<Map.Entry<Connection, Integer>> iterator = waitingForPlayers.entrySet().iterator();
                 while (iterator.hasNext()) {
-                    Map.Entry<SocketChannel, Integer> entry = iterator.next();
-                    SocketChannel player = entry.getKey();
+                    Map.Entry<Connection, Integer> entry = iterator.next();
+                    Connection player = entry.getKey();
                     Integer value = entry.getValue();
                     if (value.equals(nextReady)) {
                         playing.put(player, nextReady);
                         iterator.remove();
                     }
                 }
-                inQueue.remove(username);
-                playing.put(socketChannel, nextReady);
+                dequeue(username);
+                playing.put(connection, nextReady);
+                rooms[nextReady].join(username, connection);
                 startGame = true;
                 startGameIdx = nextReady;
             } else {
-                if (!inQueue.contains(username)) {
-                    inQueue.add(username);
-                }
-                res += "You are in the Queue!\nPosition in Queue: " + (inQueue.indexOf(username) + 1);
+                enqueue(username);
+                res += "You are in the Queue!\nPosition in Queue: " + inQueue.position(username);
             }
         }
         return res;
@@ -423,129 +657,234 @@ public class Server implements GameCallback {
     /**
      Starts the game on the specified game server.
      Sends a game starting message to all players on the server and initializes the game.
+     Must be called while holding the matchmaking lock.
      @param nextReady the index of the game server on which to start the game.
-     @throws IOException if an I/O error occurs while starting the game.
      */
-    private void startGame(Integer nextReady) throws IOException {
-        List<SocketChannel> sockets = sendMessageToPlayers(playing, "Game Starting!\n" + Game.welcomeMessage, nextReady);
-        List<String> usernames = new ArrayList<>();
-        for (SocketChannel socket : sockets) {
-            usernames.add(socketToUsername(socket));
+    private void startGame(Integer nextReady) {
+        lobbyIndex.start(lobbies[nextReady]);
+        launchGame(nextReady);
+    }
+
+    /**
+     Sets up and runs the game of a lobby that has been marked as started, with the players in its room.
+     @param index the index of the game server.
+     */
+    private void launchGame(int index) {
+        prepareGame(index);
+        runGame(index);
+    }
+
+    /**
+     Gives the runner of a started lobby a new game with the players in its room, so that the players' messages already reach that game.
+     Must be called while holding the matchmaking lock.
+     @param index the index of the game server.
+     */
+    private void prepareGame(int index) {
+        GameRunner runner = lobbies[index].getRunner();
+        runner.setGame(gameModel.clone());
+        runner.povoate_users(rooms[index].getUsernames());
+    }
+
+    /**
+     Announces and starts the prepared game of a lobby. Only touches the lobby's room and runner, so it does not need the matchmaking lock
+     and the games of different lobbies can be started in parallel.
+     @param index the index of the game server.
+     */
+    private void runGame(int index) {
+        rooms[index].broadcast(Responses.GAME_STARTING);
+        lobbies[index].getRunner().startGame();
+    }
+
+    /**
+     Runs a round of batch matchmaking (BATCH mode): forms as many full games as there are open lobbies out of a snapshot of the queue
+     (see BatchMatchmaker) and seats their players while holding the matchmaking lock. A game one of whose players left meanwhile is not formed,
+     and its other players stay in the queue. The seated games are then announced and started in parallel on the game executor, after the lock is released.
+     Unmatched players are told they are still in the queue at most once every RELAX_AFTER_TIME milliseconds.
+     Runs on the acceptor loop every BATCH_INTERVAL milliseconds.
+     */
+    private void matchBatch() {
+        List<Integer> seated = new ArrayList<>();
+        matchmakingLock.lock();
+        try {
+            long started = System.nanoTime();
+            List<String> queued = inQueue.snapshot();
+            String[] usernames = new String[queued.size()];
+            int[] ranks = new int[queued.size()];
+            long[] queuedAt = new long[queued.size()];
+            int count = 0;
+            for (String username : queued) {
+                if (sessions.byUsername(username) == null) {
+                    dequeue(username);
+                    continue;
+                }
+                usernames[count] = username;
+                ranks[count] = auth.getRank(username);
+                queuedAt[count] = inQueue.waitingSince(username);
+                count++;
+            }
+
+            long now = System.currentTimeMillis();
+            List<BatchMatchmaker.Group> groups = batchMatchmaker.match(usernames, ranks, queuedAt, count, lobbyIndex.openCount(), now);
+            for (BatchMatchmaker.Group group : groups) {
+                String[] members = group.getUsernames();
+                Connection[] connections = new Connection[members.length];
+                boolean complete = true;
+                for (int i = 0; i < members.length; i++) {
+                    SessionRegistry.Session session = sessions.byUsername(members[i]);
+                    if (session == null) {
+                        dequeue(members[i]);
+                        complete = false;
+                    } else {
+                        connections[i] = session.getConnection();
+                    }
+                }
+                // a player left since the snapshot: the others stay in the queue, with their waiting time, for the next round
+                if (!complete)
+                    continue;
+
+                Lobby lobby = lobbyIndex.firstOpen();
+                int index = lobby.getIndex();
+                lobbyIndex.open(lobby, group.getRankLow(), group.getRankHigh());
+                for (int i = 0; i < members.length; i++) {
+                    dequeue(members[i]);
+                    lobbyIndex.join(lobby);
+                    playing.put(connections[i], index);
+                    rooms[index].join(members[i], connections[i]);
+                }
+                lobbyIndex.start(lobby);
+                prepareGame(index);
+                batchMatchmaker.record(group, now);
+                seated.add(index);
+            }
+
+            if (!seated.isEmpty()) {
+                System.out.printf("Batch matchmaking: %d games from %d queued players in %.1f ms (%.1f matches/s, average rank spread %.1f)%n",
+                        seated.size(), count, (System.nanoTime() - started) / 1e6, batchMatchmaker.getMatchesPerSecond(now), batchMatchmaker.getAverageSpread());
+            }
+            if (now - lastBatchNotice >= RELAX_AFTER_TIME) {
+                lastBatchNotice = now;
+                for (String username : inQueue) {
+                    SessionRegistry.Session session = sessions.byUsername(username);
+                    if (session != null)
+                        sendMessage(session.getConnection(), Responses.STILL_IN_QUEUE);
+                }
+            }
+        } finally {
+            matchmakingLock.unlock();
+        }
+
+        for (int index : seated) {
+            gameExecutor.execute(() -> {
+                rooms[index].broadcast("Connected to Server #" + index);
+                runGame(index);
+            });
         }
-        gamesAndRanks.get(nextReady).getVal1().startGame();
-        gamesAndRanks.get(nextReady).getVal1().setGame(gameModel.clone());
-        gamesAndRanks.get(nextReady).getVal1().povoate_users(usernames);
-        threadPool.submit(gamesAndRanks.get(nextReady).getVal1());
     }
 
     /**
      The entry point of the server application.
      Creates a new Server instance with the specified number of game servers and the game configuration,
      then starts the server by calling the runServer() method.
+     The number of game servers can be set with the "server.maxGames" system property (2 by default),
+     the number of reactor threads with the "server.reactors" system property (one per core by default),
+     the way games are run with the "server.gameMode" system property (ACTOR, the default, PLATFORM_THREADS or VIRTUAL_THREADS, which requires JDK 21 or later),
+     the number of game worker threads of the ACTOR mode with the "server.gameWorkers" system property (one per core by default),
+     the number of authentication worker threads with the "server.authWorkers" system property (2 by default),
+     the slow-consumer policy with the "server.slowConsumerPolicy" system property (DROP, COALESCE or DISCONNECT, the default)
+     and the matchmaking mode with the "server.matchmaking" system property (GREEDY, the default, or BATCH).
      @param args command-line arguments (not used).
      @throws IOException if an I/O error occurs while running the server.
      */
     public static void main(String[] args) throws IOException {
-        Server server = new Server(2, new Game());
+        int maxGames = Integer.getInteger("server.maxGames", 2);
+        int reactors = Integer.getInteger("server.reactors", Runtime.getRuntime().availableProcessors());
+        int gameWorkers = Integer.getInteger("server.gameWorkers", Runtime.getRuntime().availableProcessors());
+        int authWorkers = Integer.getInteger("server.authWorkers", DEFAULT_AUTH_WORKERS);
+        GameExecutionMode gameMode = GameExecutionMode.valueOf(System.getProperty("server.gameMode", "ACTOR"));
+        if (!gameMode.isSupported()) {
+            System.out.println("Error: the " + gameMode + " game mode requires JDK 21 or later (running " + System.getProperty("java.version") + ")!");
+            System.exit(1);
+        }
+        SlowConsumerPolicy policy = SlowConsumerPolicy.valueOf(System.getProperty("server.slowConsumerPolicy", "DISCONNECT"));
+        MatchmakingMode matchmaking = MatchmakingMode.valueOf(System.getProperty("server.matchmaking", "GREEDY"));
+        Server server = new Server(maxGames, new Game(), reactors, gameWorkers, authWorkers, gameMode, policy, matchmaking);
         server.runServer();
     }
 
     /**
-     Sends a message to all players on the specified game server.
-     Returns a list of the SocketChannel instances representing the players who received the message.
-     @param clients the map of SocketChannel instances representing the connected clients, with their corresponding game server index.
-     @param message the message to send to the players.
-     @param index the index of the game server on which the players are located.
-     @return a list of SocketChannel instances representing the players who received the message.
-     @throws IOException if an I/O error occurs while sending the message.
-     **/
-    private static List<SocketChannel> sendMessageToPlayers(Map<SocketChannel, Integer> clients, String message, Integer index) throws IOException {
-        List<SocketChannel> sockets = new ArrayList<>();
-        for (SocketChannel client : clients.keySet()) {
-            if (clients.get(client).equals(index)) {
-                sendMessage(client, message);
-                sockets.add(client);
-            }
+     Sends the "Waiting for players" notice of a lobby to all players in its room.
+     Every notice (lobby, player count and suffix) is encoded from the pre-encoded template the first time it is needed and then kept as a read-only frame,
+     so a broadcast only hands each member a duplicate() of it. Must be called while holding the matchmaking lock.
+     @param index the index of the game server.
+     @param suffix the template fragment that precedes the server number (see Responses).
+     */
+    private void sendWaitingForPlayers(Integer index, byte[] suffix) {
+        int count = lobbies[index].getOccupancy();
+        ByteBuffer[] notices = waitingNotices[suffix == Responses.SERVER_SUFFIX ? 0 : 1];
+        int slot = index * (playersPerGame + 1) + Math.min(count, playersPerGame);
+        if (notices[slot] == null)
+            notices[slot] = Responses.waitingForPlayers(ByteBuffer.allocate(WAITING_FRAME_SIZE), count, playersPerGame, suffix, index).asReadOnlyBuffer();
+        rooms[index].broadcast(notices[slot]);
+    }
+
+    /**
+     Completes a call to gameHandling() once its reply has been sent: sends the "Waiting for players" notice and starts the game it asked for, if any.
+     Must be called while holding the matchmaking lock.
+     */
+    private void completeGameHandling() {
+        if (notifyWaitingIdx != -1) {
+            sendWaitingForPlayers(notifyWaitingIdx, Responses.SERVER_SUFFIX);
+            notifyWaitingIdx = -1;
+        }
+        if (startGame) {
+            startGame(startGameIdx);
+            startGame = false;
         }
-        return sockets;
     }
 
     /**
      Retrieves the index of the next available game server that is ready to accept players.
-     If the user's rank falls within the relaxed rank range of a ready game server, that server is prioritized.
+     The fullest lobby whose rank window accepts the user's rank is chosen; otherwise the first free lobby is opened around the user's rank.
      If no ready game server is found, -1 is returned.
      @param username the username of the user.
      @return the index of the next available game server, or -1 if none is available.
      */
     private int getNextReady(String username) {
-
-        Comparator<Triplet<GameRunner, String, Integer>> comparator = new Comparator<Triplet<GameRunner, String, Integer>>() {
-            @Override
-            public int compare (Triplet < GameRunner, String, Integer > t1, Triplet < GameRunner, String, Integer > t2){
-                if (t1.getVal3() > t2.getVal3())
-                    return -1;
-                else if (t1.getVal3() < t2.getVal3())
-                    return 1;
-                else
-                    return 0;
-            }
-        };
-
-        ConcurrentList<Triplet<GameRunner, String, Integer>> gamesOrdered = new ConcurrentList<>();
-        gamesOrdered.addAll(gamesAndRanks);
-
-        gamesOrdered.sort(comparator);
-
-        for (int i = 0; i < gamesOrdered.size(); i++) {
-            if (gamesOrdered.get(i).getVal1().isReady()) {
-                if (gamesOrdered.get(i).getVal2().equals("")) {
-                    int rank = auth.getRank(username);
-                    int rank1 = rank - RELAX_MMR;
-                    int rank2 = rank + RELAX_MMR;
-                    gamesOrdered.get(i).setVal2(rank1 + "-" + rank2);
-                    return gamesOrdered.get(i).getVal1().getIndex();
-                } else {
-                    String[] parts = gamesOrdered.get(i).getVal2().split("-");
-                    int rank = auth.getRank(username);
-                    if (rank >= Integer.parseInt(parts[0]) && rank <= Integer.parseInt(parts[1]))
-                        return gamesOrdered.get(i).getVal1().getIndex();
-                }
-            }
-        }
-        return -1;
+        return getNextReady(username, 0);
     }
 
     /**
-     Retrieves a map of usernames to SocketChannel instances for players in a specific game server.
-     @param gameIndex the index of the game server.
-     @return a map of usernames to SocketChannel instances for players in the specified game server.
+     Retrieves the index of the next available game server for a user that accepts lobbies whose rank window is up to the given distance away.
+     A lobby opened for the user starts its own relaxation schedule.
+     @param username the username of the user.
+     @param tolerance how far outside a lobby's rank window the user's rank may be.
+     @return the index of the next available game server, or -1 if none is available.
      */
-    public Map<String, SocketChannel> getUsernamesToSocketChannelsForGame(int gameIndex) {
-        Map<String, SocketChannel> usernamesToSocketChannels = new HashMap<>();
-        for (Map.Entry<SocketChannel, Integer> entry : playing.entrySet()) {
-            SocketChannel socketChannel = entry.getKey();
-            int index = entry.getValue();
-            String token = clientTokens.get(socketChannel);
-            if (index == gameIndex) {
-                String username = tokenToUsername(token);
-                usernamesToSocketChannels.put(username, socketChannel);
-            }
+    private int getNextReady(String username, int tolerance) {
+        int rank = auth.getRank(username);
+        Lobby lobby = lobbyIndex.find(rank, tolerance);
+        if (lobby == null) {
+            lobby = lobbyIndex.firstOpen();
+            if (lobby == null)
+                return -1;
+            lobbyIndex.open(lobby, rank - RELAX_MMR, rank + RELAX_MMR);
+            relaxLobbyLater(lobby);
         }
-        return usernamesToSocketChannels;
+        return lobby.getIndex();
     }
 
     /**
      Sends game messages to the specified receivers.
-     @param receivers a map of usernames to SocketChannel instances representing the receivers.
+     The messages are handed over to the reactors that own the receivers' connections.
+     @param room the room of the game, used to find the receivers' connections.
      @param usernames a list of usernames corresponding to the receivers.
      @param messages a list of messages to be sent.
-     @throws IOException if an I/O error occurs while sending the messages.
      */
-    private static void sendGameMessages(HashMap<String, SocketChannel> receivers, List<String> usernames, List<String> messages) throws IOException {
-        // receivers: username -> socketchannel
+    private static void sendGameMessages(Room room, List<String> usernames, List<String> messages) {
         for (int i = 0; i < usernames.size(); i++) {
-            SocketChannel socketChannel = receivers.get(usernames.get(i));
-            sendMessage(socketChannel, messages.get(i));
+            Connection connection = room.getConnection(usernames.get(i));
+            if (connection != null)
+                sendMessage(connection, messages.get(i));
         }
     }
 
@@ -553,63 +892,33 @@ public class Server implements GameCallback {
      When the game finishes processing one iteration, this function is called to:
      - Send the game's messages to all the clients that are playing this game
      - Inform the server that the game ended therefore the respective Game Runner can be used to run another Game instance
-     - Update each player points, when the game finishes
+       (the queue is dispatched on the server's acceptor loop, which is woken up by the scheduler)
+     - Update each player points, when the game finishes (the final scores are sent once the new ranks are saved)
      @param game The game object.
      @param runner The associated game runner.
      */
     @Override
     public void onUpdate(Game game, GameRunner runner) {
-
-        int index = 0;
-        for (int i = 0; i < gamesAndRanks.size(); i++) {
-            if (gamesAndRanks.get(i).getVal1().equals(runner))
-                index = i;
-        }
-
+        int index = runner.getIndex();
+        Room room = rooms[index];
 
         ArrayList<String> answers = game.getMessageForServer();
         ArrayList<String> usernames = game.getUsernameFromMessageForServer();
-        HashMap<String, SocketChannel> usernameToSocket = (HashMap<String, SocketChannel>) getUsernamesToSocketChannelsForGame(index);
 
         if (!answers.isEmpty() && answers.get(0).contains(Game.getGameOverMessage())) {
+            List<Connection> connections = new ArrayList<>();
             for (int i = 0; i < usernames.size(); i++) {
-                playing.remove(usernameToSocket.get(usernames.get(i)));
+                Connection connection = room.getConnection(usernames.get(i));
+                if (connection != null)
+                    playing.remove(connection);
+                connections.add(connection);
                 answers.set(i, answers.get(i) + "\n" + "DISCONNECT");
             }
-            try {
-                sendGameMessages(usernameToSocket, usernames, answers);
-            } catch (IOException e) {
-                System.out.println("Error: unable to send game messages!");
-            }
+            room.clear();
 
-            gamesAndRanks.get(index).setVal3(0);
-            gamesAndRanks.get(index).setVal2("");
-
-            for (int i = 0; i < inQueue.size(); i++) {
-                String user = inQueue.get(i);
-                String token = auth.getToken(user);
-                SocketChannel client = null;
-                for (SocketChannel socketChannel : clientTokens.keySet())
-                    if (clientTokens.get(socketChannel).equals(token)) {
-                        client = socketChannel;
-                        break;
-                    }
-                inQueue.remove(user);
-                i--;
-                int next = getNextReady(user);
-                try {
-                    String res = gameHandling(client, next, user, token);
-                    if (client != null){
-                        sendMessage(client, res);
-                        if (startGame) {
-                            startGame(startGameIdx);
-                            startGame = false;
-                        }
-                    }
-                } catch (IOException e) {
-                    System.out.println("Error: Unable to send messages to clients!");
-                }
-            }
+            lobbies[index].finish();
+            final int freed = index;
+            scheduler.execute(() -> dispatchQueue(freed));
             if (answers.get(0).contains("points")) {
                 for (int i = 0; i < answers.size(); i++) {
                     String answer = answers.get(i);
@@ -617,23 +926,74 @@ public class Server implements GameCallback {
                     auth.updateRank(usernames.get(i), incrementPoints);
                 }
             }
+            // the final scores are only announced once the new ranks are saved
+            auth.whenRanksSaved(() -> {
+                for (int i = 0; i < connections.size(); i++) {
+                    if (connections.get(i) != null)
+                        sendMessage(connections.get(i), answers.get(i));
+                }
+            });
         } else {
-            try {
-                sendGameMessages(usernameToSocket, usernames, answers);
-            } catch (IOException e) {
-                System.out.println("Error: unable to send game messages!");
+            sendGameMessages(room, usernames, answers);
+        }
+    }
+
+    /**
+     Resets the given game server and tries to place every queued user again.
+     Called on the acceptor loop after a game ends.
+     @param index The index of the game server that became free.
+     */
+    private void dispatchQueue(int index) {
+        matchmakingLock.lock();
+        try {
+            lobbyIndex.reopen(lobbies[index]);
+            // in the BATCH mode the next batch fills the lobby
+            if (matchmaking == MatchmakingMode.BATCH)
+                return;
+            placeQueued();
+        } finally {
+            matchmakingLock.unlock();
+        }
+    }
+
+    /**
+     Tries to place every queued user, after a lobby became free, and reschedules the relaxation steps of the users still queued,
+     since the lobby that was opened for them may be closer than the one their steps were timed for.
+     Must be called while holding the matchmaking lock.
+     */
+    private void placeQueued() {
+        for (String user : inQueue) {
+            SessionRegistry.Session session = sessions.byUsername(user);
+            if (session == null) {
+                dequeue(user);
+            } else {
+                int next = getNextReady(user);
+                Connection client = session.getConnection();
+                String res = gameHandling(client, next, user, session.getToken());
+                sendMessage(client, res);
+                completeGameHandling();
             }
         }
+        for (String user : inQueue)
+            relaxPlayerLater(user);
     }
+
     /**
-     Sends a message to a specific SocketChannel.
-     @param socketChannel The SocketChannel to send the message to.
+     Sends a message to a specific client.
+     The message is queued on the connection and written by the reactor that owns it, so this method can be called from any thread and never blocks.
+     @param connection The Connection to send the message to.
      @param message The message to be sent.
-     @throws IOException If an error occurs while sending the message.
      */
-    public static void sendMessage(SocketChannel socketChannel, String message) throws IOException {
-        buffer.put(0, new byte[buffer.limit()]);
-        buffer = encoder.encode(CharBuffer.wrap(message));
-        socketChannel.write(buffer);
+    public static void sendMessage(Connection connection, String message) {
+        connection.send(message);
+    }
+
+    /**
+     Sends a pre-encoded response to a specific client, without encoding it again.
+     @param connection The Connection to send the response to.
+     @param response The pre-encoded response (see Responses). It is not modified.
+     */
+    public static void sendMessage(Connection connection, ByteBuffer response) {
+        connection.enqueue(response.duplicate());
     }
 }
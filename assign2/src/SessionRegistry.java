@@ -0,0 +1,174 @@
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ The SessionRegistry class indexes the sessions of the logged in players by token, by username and by connection,
+ so that every lookup between them is a single hash lookup.
+ The three indexes are updated together under a write lock, so a lookup in any direction never sees a half-opened or half-closed session.
+ Tokens are kept as two longs in a TokenMap; their hexadecimal form (see Tokens) is only built or parsed at the protocol edge.
+ */
+public class SessionRegistry {
+    private final TokenMap<Session> byToken = new TokenMap<>();
+    private final HashMap<String, Session> byUsername = new HashMap<>();
+    private final HashMap<Connection, Session> byConnection = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     The Session class binds a logged in player to its token and to the connection it logged in from.
+     */
+    public static class Session {
+        private final String username;
+        private final long tokenHigh;
+        private final long tokenLow;
+        private final Connection connection;
+
+        private Session(String username, long tokenHigh, long tokenLow, Connection connection) {
+            this.username = username;
+            this.tokenHigh = tokenHigh;
+            this.tokenLow = tokenLow;
+            this.connection = connection;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getToken() {
+            return Tokens.encode(tokenHigh, tokenLow);
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+    }
+
+    /**
+     Opens a session.
+     @param username The username of the player.
+     @param tokenHigh The high 64 bits of the player's access token.
+     @param tokenLow The low 64 bits of the player's access token.
+     @param connection The connection the player logged in from, or null if it is not known yet.
+     @return The new session, or null if the player or the connection already has a session, or the token is already in use.
+     */
+    public Session open(String username, long tokenHigh, long tokenLow, Connection connection) {
+        lock.writeLock().lock();
+        try {
+            if (byUsername.containsKey(username) || (connection != null && byConnection.containsKey(connection))
+                    || byToken.get(tokenHigh, tokenLow) != null)
+                return null;
+            Session session = new Session(username, tokenHigh, tokenLow, connection);
+            byToken.put(tokenHigh, tokenLow, session);
+            byUsername.put(username, session);
+            if (connection != null)
+                byConnection.put(connection, session);
+            return session;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     Closes the session with the given token.
+     @param token The access token, in its protocol form.
+     @return The closed session, or null if there was no session with the token.
+     */
+    public Session closeByToken(String token) {
+        if (!Tokens.isValid(token))
+            return null;
+        long high = Tokens.high(token);
+        long low = Tokens.low(token);
+        lock.writeLock().lock();
+        try {
+            Session session = byToken.get(high, low);
+            if (session != null)
+                remove(session);
+            return session;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     Closes the session opened from the given connection.
+     @param connection The connection.
+     @return The closed session, or null if there was no session on the connection.
+     */
+    public Session closeByConnection(Connection connection) {
+        lock.writeLock().lock();
+        try {
+            Session session = byConnection.get(connection);
+            if (session != null)
+                remove(session);
+            return session;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     Closes every session.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            byToken.clear();
+            byUsername.clear();
+            byConnection.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     Retrieves the session with the given token.
+     @param token The access token, in its protocol form.
+     @return The session, or null if the token is not valid.
+     */
+    public Session byToken(String token) {
+        if (!Tokens.isValid(token))
+            return null;
+        long high = Tokens.high(token);
+        long low = Tokens.low(token);
+        lock.readLock().lock();
+        try {
+            return byToken.get(high, low);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     Retrieves the session of the given player.
+     @param username The username.
+     @return The session, or null if the player is not logged in.
+     */
+    public Session byUsername(String username) {
+        lock.readLock().lock();
+        try {
+            return byUsername.get(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     Retrieves the session opened from the given connection.
+     @param connection The connection.
+     @return The session, or null if no player is logged in on the connection.
+     */
+    public Session byConnection(Connection connection) {
+        lock.readLock().lock();
+        try {
+            return byConnection.get(connection);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void remove(Session session) {
+        byToken.remove(session.tokenHigh, session.tokenLow);
+        byUsername.remove(session.username);
+        if (session.connection != null)
+            byConnection.remove(session.connection);
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ The SlowConsumerPolicy enum lists what a connection does when a client reads slower than the server writes,
+ i.e. when its outbound queue would grow beyond the configured limit.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     The new message is discarded; the messages already queued are still delivered.
+     */
+    DROP,
+    /**
+     The new message is queued and the oldest queued messages that have not started being written are discarded,
+     so the client always receives the most recent updates.
+     */
+    COALESCE,
+    /**
+     The client is disconnected, as if it had closed the connection itself.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,146 @@
+/**
+ The TokenMap class is an open-addressing hash map keyed by 128-bit tokens, stored as two longs, so keys are neither boxed nor turned into strings.
+ It uses linear probing with backward-shift deletion, so removals leave no tombstones behind.
+ It is not thread-safe; callers must synchronize the access (see SessionRegistry).
+ @param <V> The type of the values.
+ */
+public class TokenMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] highs;
+    private long[] lows;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    /**
+     Constructs an empty TokenMap object.
+     */
+    public TokenMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     Gets the number of entries.
+     @return The number of tokens in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     Retrieves the value of a token.
+     @param high The high 64 bits of the token.
+     @param low The low 64 bits of the token.
+     @return The value, or null if the token is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long high, long low) {
+        int slot = find(high, low);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     Associates a value with a token.
+     @param high The high 64 bits of the token.
+     @param low The low 64 bits of the token.
+     @param value The value. It must not be null.
+     @return The previous value of the token, or null if the token was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long high, long low, V value) {
+        int slot = find(high, low);
+        if (slot >= 0) {
+            V previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        if ((size + 1) * 4L > values.length * 3L)
+            resize(values.length * 2);
+        slot = hash(high, low) & mask;
+        while (values[slot] != null)
+            slot = (slot + 1) & mask;
+        highs[slot] = high;
+        lows[slot] = low;
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     Removes a token.
+     @param high The high 64 bits of the token.
+     @param low The low 64 bits of the token.
+     @return The value of the token, or null if the token was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long high, long low) {
+        int slot = find(high, low);
+        if (slot < 0)
+            return null;
+        V removed = (V) values[slot];
+        // shift back the following entries of the probe run that would no longer be reachable
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(highs[next], lows[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                highs[hole] = highs[next];
+                lows[hole] = lows[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[hole] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     Removes every token.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    private int find(long high, long low) {
+        int slot = hash(high, low) & mask;
+        while (values[slot] != null) {
+            if (highs[slot] == high && lows[slot] == low)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldHighs[i], oldLows[i]) & mask;
+                while (values[slot] != null)
+                    slot = (slot + 1) & mask;
+                highs[slot] = oldHighs[i];
+                lows[slot] = oldLows[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long high, long low) {
+        long hash = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,89 @@
+import java.security.SecureRandom;
+
+/**
+ The Tokens class generates the 128-bit access tokens and converts them to and from their protocol form.
+ Inside the server a token is a pair of longs (see TokenMap); it is only turned into a 32-character hexadecimal string when it is sent to,
+ or received from, a client.
+ Every thread generates tokens with its own SecureRandom, so threads never contend on a shared generator.
+ */
+public final class Tokens {
+    public static final int LENGTH = 32;
+
+    private static final ThreadLocal<SecureRandom> generator = ThreadLocal.withInitial(SecureRandom::new);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Tokens() {
+    }
+
+    /**
+     Gets the calling thread's secure random generator, used to draw the two halves of a new token.
+     @return The thread's generator.
+     */
+    public static SecureRandom generator() {
+        return generator.get();
+    }
+
+    /**
+     Encodes a token as 32 lowercase hexadecimal digits.
+     @param high The high 64 bits of the token.
+     @param low The low 64 bits of the token.
+     @return The protocol form of the token.
+     */
+    public static String encode(long high, long low) {
+        char[] digits = new char[LENGTH];
+        for (int i = 0; i < 16; i++) {
+            digits[15 - i] = HEX_DIGITS[(int) (high >>> (i * 4)) & 0xF];
+            digits[31 - i] = HEX_DIGITS[(int) (low >>> (i * 4)) & 0xF];
+        }
+        return new String(digits);
+    }
+
+    /**
+     Checks if a string is the protocol form of a token.
+     @param token The string to check.
+     @return true if the string has 32 lowercase hexadecimal digits, false otherwise.
+     */
+    public static boolean isValid(String token) {
+        if (token == null || token.length() != LENGTH)
+            return false;
+        for (int i = 0; i < LENGTH; i++) {
+            if (hexValue(token.charAt(i)) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     Decodes the high 64 bits of a token. The token must be valid (see isValid()).
+     @param token The protocol form of the token.
+     @return The high 64 bits.
+     */
+    public static long high(String token) {
+        return decode(token, 0);
+    }
+
+    /**
+     Decodes the low 64 bits of a token. The token must be valid (see isValid()).
+     @param token The protocol form of the token.
+     @return The low 64 bits.
+     */
+    public static long low(String token) {
+        return decode(token, 16);
+    }
+
+    private static long decode(String token, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 16; i++)
+            value = (value << 4) | hexValue(token.charAt(i));
+        return value;
+    }
+
+    // only the ASCII digits that encode() writes; Character.digit() would also accept uppercase and non-ASCII (e.g. fullwidth) digits
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        return -1;
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ The UserStore class keeps the registered users in memory, indexed by username, so that logins and registrations never read the users file.
+ The file is read once, when the store is created, and is then only appended to.
+ New registrations are appended by a flusher thread, which writes every registration queued since its last pass and syncs the file once per batch (group commit),
+ so the cost of the fsync is shared by all the registrations of the batch. Every registration returns a future that completes once its batch is synced,
+ or fails if the batch cannot be written, in which case the user is removed again.
+ A Bloom filter of the usernames sits in front of the index: most lookups of unknown usernames (typos, registrations of new names,
+ brute-force attempts on nonexistent accounts) are answered by the filter, without touching the index or its lock.
+ When the number of users outgrows the filter, it is rebuilt twice as large.
+ */
+public class UserStore {
+    private static final long FLUSH_INTERVAL = 10;
+    private static final int MIN_FILTER_CAPACITY = 1 << 16;
+    private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    // username -> password
+    private final ConcurrentHashMap<String, String> users = new ConcurrentHashMap<>();
+
+    // every username in users is in the filter; replaced (not modified) when it is rebuilt
+    private volatile BloomFilter known;
+
+    private final FileChannel log;
+
+    // registrations not yet written to the file, guarded by this
+    private List<Registration> pending = new ArrayList<>();
+    private boolean closed = false;
+
+    private final Thread flusher;
+
+    /**
+     The Registration class is a registration waiting to be written: the user and the future completed once it is saved.
+     */
+    private static class Registration {
+        private final String username;
+        private final String password;
+        private final CompletableFuture<Boolean> saved = new CompletableFuture<>();
+
+        private Registration(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    /**
+     Constructs a UserStore object, loading all the users from the given file.
+     @param fileName The users file, with one "username:password" line per user.
+     @throws IOException If an error occurs while reading or opening the file.
+     */
+    public UserStore(String fileName) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(':');
+                if (separator > 0)
+                    users.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+        }
+        known = buildFilter(users.size());
+        log = new FileOutputStream(fileName, true).getChannel();
+        flusher = new Thread(this::runFlusher, "user-store-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     Retrieves the password of a user.
+     @param username The username.
+     @return The user's password, or null if the user is not registered.
+     */
+    public String getPassword(String username) {
+        if (!known.mightContain(username))
+            return null;
+        return users.get(username);
+    }
+
+    /**
+     Registers a new user. The username is taken right away; the user is written to the file by the flusher thread shortly after.
+     @param username The username of the new user.
+     @param password The password of the new user.
+     @return A future that completes with true once the user is saved, is already completed with false if the username exists,
+     and fails with the IOException if the user could not be saved (the username is then free again).
+     */
+    public synchronized CompletableFuture<Boolean> register(String username, String password) {
+        if (closed || (known.mightContain(username) && users.containsKey(username)))
+            return CompletableFuture.completedFuture(false);
+        users.put(username, password);
+        if (users.size() > known.getCapacity())
+            known = buildFilter(users.size());
+        else
+            known.add(username);
+        Registration registration = new Registration(username, password);
+        pending.add(registration);
+        notify();
+        return registration.saved;
+    }
+
+    /**
+     Writes the pending registrations, stops the flusher thread and closes the file.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notify();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     The flusher thread's loop. Waits for registrations, then writes and syncs them as one batch.
+     Registrations that arrive within the flush interval of the first one join its batch.
+     */
+    private void runFlusher() {
+        while (true) {
+            List<Registration> batch;
+            boolean last;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed)
+                        wait();
+                    if (!closed)
+                        wait(FLUSH_INTERVAL);
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                last = closed;
+            }
+            write(batch);
+            if (last)
+                break;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.out.println("Error: unable to close the users file!");
+        }
+    }
+
+    /**
+     Builds a filter of all the usernames, with room for twice the given number of users. Must not run concurrently with register().
+     */
+    private BloomFilter buildFilter(int size) {
+        BloomFilter filter = new BloomFilter(Math.max(MIN_FILTER_CAPACITY, size * 2), FILTER_FALSE_POSITIVE_RATE);
+        for (String username : users.keySet())
+            filter.add(username);
+        return filter;
+    }
+
+    /**
+     Appends a batch of registrations to the file and syncs it, then completes their futures.
+     If the batch cannot be written, the partially written lines are truncated, the users are removed and their futures fail.
+     */
+    private void write(List<Registration> batch) {
+        if (batch.isEmpty())
+            return;
+        StringBuilder lines = new StringBuilder();
+        for (Registration registration : batch)
+            lines.append(registration.username).append(':').append(registration.password).append('\n');
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        long position = -1;
+        try {
+            position = log.size();
+            while (buffer.hasRemaining())
+                log.write(buffer);
+            log.force(false);
+        } catch (IOException e) {
+            System.out.println("Error: unable to save " + batch.size() + " registrations to the users file!");
+            try {
+                if (position >= 0)
+                    log.truncate(position);
+            } catch (IOException truncateError) {
+                System.out.println("Error: unable to drop a partially saved batch from the users file!");
+            }
+            synchronized (this) {
+                // the filter keeps the names, which only costs a map lookup for them
+                for (Registration registration : batch)
+                    users.remove(registration.username, registration.password);
+            }
+            for (Registration registration : batch)
+                registration.saved.completeExceptionally(e);
+            return;
+        }
+        for (Registration registration : batch)
+            registration.saved.complete(true);
+    }
+}
@@ -1,2 +1,2 @@
 del *.class /s /q
-javac Client.java Server.java Authentication.java ConcurrentHashMap.java ConcurrentList.java Game.java GameRunner.java GameCallback.java Triplet.java
\ No newline at end of file
+javac Client.java Server.java Authentication.java ConcurrentHashMap.java ConcurrentList.java Game.java GameRunner.java GameCallback.java Triplet.java Scheduler.java Reactor.java Connection.java FrameCodec.java SlowConsumerPolicy.java BufferPool.java Responses.java Room.java GameExecutionMode.java GameBenchmark.java GameInbox.java UserStore.java SessionRegistry.java RankJournal.java RankMap.java BloomFilter.java Tokens.java TokenMap.java MatchmakingQueue.java LobbyIndex.java Lobby.java HashedTimerWheel.java MatchmakingMode.java BatchMatchmaker.java
\ No newline at end of file
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ Tests of BatchMatchmaker: grouping by rank, the spread that grows with the wait, the cap on the number of games and the statistics.
+ */
+public class BatchMatchmakerTest {
+    public static void main(String[] args) {
+        groupsNeighboursByRank();
+        spreadGrowsWithWait();
+        keepsLongestWaitingGroups();
+        recordsOnlySeatedGames();
+        System.out.println("BatchMatchmakerTest: OK");
+    }
+
+    private static void groupsNeighboursByRank() {
+        BatchMatchmaker matchmaker = new BatchMatchmaker(2, 100, 50, 10000);
+        String[] usernames = {"a", "b", "c", "d", "e"};
+        int[] ranks = {1000, 10, 1050, 60, 5000};
+        long[] queuedAt = {0, 0, 0, 0, 0};
+        List<BatchMatchmaker.Group> groups = matchmaker.match(usernames, ranks, queuedAt, 5, 10, 0);
+        check(groups.size() == 2, "two games must be formed: " + groups.size());
+        check(sorted(groups.get(0).getUsernames()).equals("[b, d]"), "the lowest ranks play together");
+        check(sorted(groups.get(1).getUsernames()).equals("[a, c]"), "the next ranks play together");
+        check(groups.get(0).getSpread() == 50, "the spread of a game is its rank range");
+        check(matchmaker.match(usernames, ranks, queuedAt, 1, 10, 0).isEmpty(), "too few players form no game");
+        check(matchmaker.match(usernames, ranks, queuedAt, 5, 0, 0).isEmpty(), "no free lobby forms no game");
+    }
+
+    private static void spreadGrowsWithWait() {
+        BatchMatchmaker matchmaker = new BatchMatchmaker(2, 100, 50, 10000);
+        String[] usernames = {"a", "b"};
+        int[] ranks = {0, 160};
+        check(matchmaker.match(usernames, ranks, new long[]{0, 0}, 2, 1, 0).isEmpty(), "a spread of 160 is too wide without waiting");
+        check(matchmaker.match(usernames, ranks, new long[]{0, 5000}, 2, 1, 11999).isEmpty(), "60 more points need 12 s of waiting");
+        check(matchmaker.match(usernames, ranks, new long[]{0, 5000}, 2, 1, 12000).size() == 1, "the longest wait relaxes the spread");
+    }
+
+    private static void keepsLongestWaitingGroups() {
+        BatchMatchmaker matchmaker = new BatchMatchmaker(2, 100, 50, 10000);
+        String[] usernames = {"a", "b", "c", "d"};
+        int[] ranks = {0, 10, 1000, 1010};
+        long[] queuedAt = {900, 900, 100, 500};
+        List<BatchMatchmaker.Group> groups = matchmaker.match(usernames, ranks, queuedAt, 4, 1, 1000);
+        check(groups.size() == 1, "only one game fits");
+        check(sorted(groups.get(0).getUsernames()).equals("[c, d]"), "the game whose player waited the longest is kept");
+    }
+
+    private static void recordsOnlySeatedGames() {
+        BatchMatchmaker matchmaker = new BatchMatchmaker(2, 100, 50, 10000);
+        long now = System.currentTimeMillis();
+        List<BatchMatchmaker.Group> groups = matchmaker.match(new String[]{"a", "b", "c", "d"}, new int[]{0, 20, 500, 540}, new long[4], 4, 2, now);
+        check(matchmaker.getMatches() == 0, "formed games are not counted until they are recorded");
+        matchmaker.record(groups.get(1), now);
+        check(matchmaker.getMatches() == 1, "a recorded game is counted");
+        check(matchmaker.getAverageSpread() == 40, "the spread of the recorded game only: " + matchmaker.getAverageSpread());
+        check(matchmaker.getMatchesPerSecond(now + 60000 + 1000) == 0, "a game older than the rate window is not in the rate");
+    }
+
+    private static String sorted(String[] usernames) {
+        String[] copy = usernames.clone();
+        Arrays.sort(copy);
+        return Arrays.toString(copy);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
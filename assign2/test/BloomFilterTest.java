@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Tests of BloomFilter: no false negatives (also with concurrent adds) and a false positive rate close to the one it was sized for.
+ */
+public class BloomFilterTest {
+    public static void main(String[] args) throws InterruptedException {
+        neverMissesAddedStrings();
+        keepsFalsePositiveRate();
+        neverMissesConcurrentAdds();
+        System.out.println("BloomFilterTest: OK");
+    }
+
+    private static void neverMissesAddedStrings() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        check(!filter.mightContain("alice"), "an empty filter must not contain anything");
+        for (int i = 0; i < 1000; i++)
+            filter.add("user" + i);
+        for (int i = 0; i < 1000; i++)
+            check(filter.mightContain("user" + i), "an added string must always be found: user" + i);
+        check(filter.getCapacity() == 1000, "the capacity must be the one the filter was sized for");
+    }
+
+    private static void keepsFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            filter.add("user" + i);
+        int falsePositives = 0;
+        int lookups = 100000;
+        for (int i = 0; i < lookups; i++) {
+            if (filter.mightContain("other" + i))
+                falsePositives++;
+        }
+        double rate = (double) falsePositives / lookups;
+        check(rate < 0.02, "the false positive rate must stay close to 1% at capacity: " + rate);
+    }
+
+    private static void neverMissesConcurrentAdds() throws InterruptedException {
+        // a small filter, so that the threads keep setting bits of the same words
+        BloomFilter filter = new BloomFilter(4000, 0.05);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                    filter.add("t" + thread + "-" + i);
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 1000; i++)
+                check(filter.mightContain("t" + t + "-" + i), "a string added concurrently must always be found");
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Tests of FrameCodec: frames split across reads, pipelined and oversized frames, the frame size bound of the encoders and encodedLength().
+ */
+public class FrameCodecTest {
+    public static void main(String[] args) throws IOException {
+        decodesFramesSplitAcrossReads();
+        decodesPipelinedFrames();
+        decodesFrameLargerThanPooledBuffer();
+        rejectsInvalidFrames();
+        encodersRejectOversizedMessages();
+        encodedLengthMatchesEncoding();
+        System.out.println("FrameCodecTest: OK");
+    }
+
+    private static void decodesFramesSplitAcrossReads() throws IOException {
+        ByteBuffer bytes = concat(FrameCodec.encode("login alice pw"), FrameCodec.encode("h\u00e9llo w\u00f6rld \u20ac"));
+        FrameCodec codec = new FrameCodec(8);
+        List<String> messages = readAll(codec, new ChunkedChannel(bytes, 1));
+        check(messages.equals(List.of("login alice pw", "h\u00e9llo w\u00f6rld \u20ac")), "frames read one byte at a time must be rebuilt: " + messages);
+    }
+
+    private static void decodesPipelinedFrames() throws IOException {
+        ByteBuffer bytes = concat(FrameCodec.encode("a"), FrameCodec.encode(""), FrameCodec.encode("b"));
+        FrameCodec codec = new FrameCodec(4096);
+        List<String> messages = readAll(codec, new ChunkedChannel(bytes, bytes.remaining()));
+        check(messages.equals(List.of("a", "", "b")), "several frames from a single read must all be decoded: " + messages);
+    }
+
+    private static void decodesFrameLargerThanPooledBuffer() throws IOException {
+        BufferPool pool = new BufferPool(64, 4, 1);
+        String large = "x".repeat(1000);
+        ByteBuffer frame = FrameCodec.encode(large, pool);
+        check(!pool.isPooled(frame), "a message larger than a chunk must be encoded into a heap buffer");
+
+        FrameCodec codec = new FrameCodec(pool);
+        ByteBuffer bytes = concat(frame, FrameCodec.encode("after"));
+        List<String> messages = readAll(codec, new ChunkedChannel(bytes, 50));
+        check(messages.equals(List.of(large, "after")), "a frame larger than the pooled buffer must be decoded, and the next one too");
+        codec.release();
+    }
+
+    private static void rejectsInvalidFrames() throws IOException {
+        ByteBuffer oversized = ByteBuffer.allocate(FrameCodec.HEADER_SIZE).putInt(FrameCodec.MAX_FRAME_SIZE + 1).flip();
+        check(failsToDecode(oversized), "a frame announcing more than MAX_FRAME_SIZE bytes must be rejected");
+
+        ByteBuffer negative = ByteBuffer.allocate(FrameCodec.HEADER_SIZE).putInt(-1).flip();
+        check(failsToDecode(negative), "a frame announcing a negative length must be rejected");
+
+        ByteBuffer invalidUtf8 = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + 2).putInt(2).put((byte) 0xC3).put((byte) 0x28).flip();
+        check(failsToDecode(invalidUtf8), "a frame carrying invalid UTF-8 must be rejected");
+    }
+
+    private static void encodersRejectOversizedMessages() throws IOException {
+        String largest = "y".repeat(FrameCodec.MAX_FRAME_SIZE);
+        FrameCodec codec = new FrameCodec(16);
+        List<String> messages = readAll(codec, new ChunkedChannel(FrameCodec.encode(largest), 4096));
+        check(messages.equals(List.of(largest)), "a message of exactly MAX_FRAME_SIZE bytes must be encoded and decoded");
+
+        String tooLarge = largest + "y";
+        check(failsToEncode(() -> FrameCodec.encode(tooLarge)), "encode() must reject a message longer than MAX_FRAME_SIZE");
+        BufferPool pool = new BufferPool(64, 4, 1);
+        check(failsToEncode(() -> FrameCodec.encode(tooLarge, pool)), "the pooled encode() must reject a message longer than MAX_FRAME_SIZE");
+        // 3 bytes per char, so fewer chars than MAX_FRAME_SIZE still exceed it
+        check(failsToEncode(() -> FrameCodec.encode("\u20ac".repeat(FrameCodec.MAX_FRAME_SIZE / 3 + 1))), "the bound must apply to the encoded bytes");
+    }
+
+    private static void encodedLengthMatchesEncoding() {
+        String[] messages = {"", "plain", "h\u00e9llo", "\u20acuro", "\uD83D\uDE00 smile", "lone \uD800 surrogate", "lone \uDC00 low", "end \uD83D"};
+        BufferPool pool = new BufferPool(4096, 2, 1);
+        for (String message : messages) {
+            int expected = FrameCodec.encode(message).remaining();
+            check(FrameCodec.encodedLength(message) == expected, "encodedLength() must match encode() for \"" + message + "\"");
+            ByteBuffer pooled = FrameCodec.encode(message, pool);
+            check(pooled.remaining() == expected, "the pooled encode() must produce the same frame size for \"" + message + "\"");
+            pool.release(pooled);
+        }
+    }
+
+    private static boolean failsToDecode(ByteBuffer bytes) throws IOException {
+        try {
+            readAll(new FrameCodec(16), new ChunkedChannel(bytes, bytes.remaining()));
+            return false;
+        } catch (ProtocolException e) {
+            return true;
+        }
+    }
+
+    private static boolean failsToEncode(Runnable encode) {
+        try {
+            encode.run();
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static List<String> readAll(FrameCodec codec, ReadableByteChannel channel) throws IOException {
+        List<String> messages = new ArrayList<>();
+        while (codec.read(channel) != -1) {
+            String message;
+            while ((message = codec.nextFrame()) != null)
+                messages.add(message);
+        }
+        return messages;
+    }
+
+    private static ByteBuffer concat(ByteBuffer... frames) {
+        int size = 0;
+        for (ByteBuffer frame : frames)
+            size += frame.remaining();
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        for (ByteBuffer frame : frames)
+            bytes.put(frame);
+        return bytes.flip();
+    }
+
+    /**
+     A channel that hands out its bytes at most a given number at a time, like TCP splitting a stream.
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer bytes;
+        private final int chunk;
+
+        private ChunkedChannel(ByteBuffer bytes, int chunk) {
+            this.bytes = bytes;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (!bytes.hasRemaining())
+                return -1;
+            int count = Math.min(Math.min(chunk, bytes.remaining()), destination.remaining());
+            ByteBuffer slice = bytes.duplicate();
+            slice.limit(slice.position() + count);
+            destination.put(slice);
+            bytes.position(bytes.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
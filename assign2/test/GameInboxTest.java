@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ Tests of GameInbox: order and capacity with one producer, wrap-around, and several producers racing against the consumer.
+ */
+public class GameInboxTest {
+    public static void main(String[] args) throws InterruptedException {
+        keepsOrderAndCapacity();
+        reusesSlotsAfterWrapAround();
+        deliversEveryMessageOfConcurrentProducers();
+        System.out.println("GameInboxTest: OK");
+    }
+
+    private static void keepsOrderAndCapacity() {
+        GameInbox inbox = new GameInbox(3);
+        check(!inbox.hasMessages(), "a new inbox must be empty");
+        for (int i = 0; i < 4; i++)
+            check(inbox.offer("p" + i, "m" + i), "the capacity must be rounded up to a power of two");
+        check(!inbox.offer("p4", "m4"), "a full inbox must refuse messages");
+        check(inbox.hasMessages(), "the inbox must report its messages");
+
+        List<String> drained = new ArrayList<>();
+        check(inbox.drain((player, payload) -> drained.add(player + ":" + payload)) == 4, "drain() must count the messages");
+        check(drained.equals(List.of("p0:m0", "p1:m1", "p2:m2", "p3:m3")), "messages must be drained in order: " + drained);
+        check(!inbox.hasMessages(), "a drained inbox must be empty");
+        check(inbox.drain((player, payload) -> drained.add("extra")) == 0, "draining an empty inbox must do nothing");
+    }
+
+    private static void reusesSlotsAfterWrapAround() {
+        GameInbox inbox = new GameInbox(4);
+        List<String> drained = new ArrayList<>();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 3; i++)
+                check(inbox.offer("p", round + "." + i), "freed slots must be reused");
+            inbox.drain((player, payload) -> drained.add(payload));
+        }
+        check(drained.size() == 300, "every message must be drained once");
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 3; i++)
+                check(drained.get(round * 3 + i).equals(round + "." + i), "messages must stay in order across wrap-arounds");
+        }
+    }
+
+    private static void deliversEveryMessageOfConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int messages = 20000;
+        GameInbox inbox = new GameInbox(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            String player = "p" + p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < messages; i++) {
+                    while (!inbox.offer(player, Integer.toString(i)))
+                        Thread.yield();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        int[] next = new int[producers];
+        int[] received = {0};
+        start.countDown();
+        while (received[0] < producers * messages) {
+            // the producers may share the consumer's core, so an empty pass gives them the CPU
+            if (!inbox.hasMessages())
+                Thread.yield();
+            inbox.drain((player, payload) -> {
+                int p = player.charAt(1) - '0';
+                check(Integer.parseInt(payload) == next[p], "the messages of a producer must arrive in order and exactly once");
+                next[p]++;
+                received[0]++;
+            });
+        }
+        for (Thread thread : threads)
+            thread.join();
+        check(!inbox.hasMessages(), "no message must be left behind");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
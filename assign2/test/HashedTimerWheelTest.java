@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Tests of HashedTimerWheel: deadlines, cancellation (also of a timeout that is already due) and timeouts more than one turn away.
+ */
+public class HashedTimerWheelTest {
+    public static void main(String[] args) throws InterruptedException {
+        runsOnlyAfterDeadline();
+        cancelBeforeDeadline();
+        cancelWhileDueInSameAdvance();
+        actionsMayReschedule();
+        survivesMoreThanOneTurn();
+        System.out.println("HashedTimerWheelTest: OK");
+    }
+
+    private static void runsOnlyAfterDeadline() throws InterruptedException {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, 8);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(() -> ran.add("a"), 50);
+        wheel.advance();
+        check(ran.isEmpty(), "a timeout must not run before its deadline");
+        check(wheel.size() == 1, "the timeout must be pending");
+        Thread.sleep(80);
+        wheel.advance();
+        check(ran.equals(List.of("a")), "the timeout must run once its deadline passed: " + ran);
+        check(wheel.isEmpty(), "the wheel must be empty after the timeout ran");
+        Thread.sleep(30);
+        wheel.advance();
+        check(ran.size() == 1, "a timeout must run only once");
+    }
+
+    private static void cancelBeforeDeadline() throws InterruptedException {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, 8);
+        List<String> ran = new ArrayList<>();
+        HashedTimerWheel.Timeout timeout = wheel.schedule(() -> ran.add("a"), 20);
+        timeout.cancel();
+        check(timeout.isCancelled(), "the timeout must be cancelled");
+        check(wheel.isEmpty(), "a cancelled timeout must leave the wheel");
+        Thread.sleep(50);
+        wheel.advance();
+        check(ran.isEmpty(), "a cancelled timeout must not run");
+        timeout.cancel();
+        check(wheel.size() == 0, "cancelling twice must not change the size");
+    }
+
+    private static void cancelWhileDueInSameAdvance() throws InterruptedException {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, 8);
+        List<String> ran = new ArrayList<>();
+        HashedTimerWheel.Timeout[] timeouts = new HashedTimerWheel.Timeout[2];
+        // both are due in the same advance(), and whichever runs first cancels the other
+        timeouts[0] = wheel.schedule(() -> {
+            ran.add("a");
+            timeouts[1].cancel();
+        }, 20);
+        timeouts[1] = wheel.schedule(() -> {
+            ran.add("b");
+            timeouts[0].cancel();
+        }, 20);
+        Thread.sleep(50);
+        wheel.advance();
+        check(ran.size() == 1, "a timeout cancelled by an earlier action of the same advance() must not run: " + ran);
+        check(wheel.isEmpty(), "the wheel must be empty");
+    }
+
+    private static void actionsMayReschedule() throws InterruptedException {
+        HashedTimerWheel wheel = new HashedTimerWheel(10, 8);
+        int[] runs = new int[1];
+        Runnable[] step = new Runnable[1];
+        step[0] = () -> {
+            if (++runs[0] < 3)
+                wheel.schedule(step[0], 10);
+        };
+        wheel.schedule(step[0], 10);
+        for (int i = 0; i < 20 && runs[0] < 3; i++) {
+            Thread.sleep(15);
+            wheel.advance();
+        }
+        check(runs[0] == 3, "a rescheduled step must run again: " + runs[0]);
+        check(wheel.isEmpty(), "the wheel must be empty after the last step");
+    }
+
+    private static void survivesMoreThanOneTurn() throws InterruptedException {
+        // 4 slots of 10 ms: a 100 ms deadline is more than two turns away and shares its slot with nearer ticks
+        HashedTimerWheel wheel = new HashedTimerWheel(10, 4);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(() -> ran.add("far"), 100);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(10);
+            wheel.advance();
+        }
+        check(ran.isEmpty(), "a timeout must stay in its slot until its own turn: " + ran);
+        Thread.sleep(100);
+        wheel.advance();
+        check(ran.equals(List.of("far")), "the timeout must run after a whole turn elapsed: " + ran);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
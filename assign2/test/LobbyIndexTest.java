@@ -0,0 +1,54 @@
+/**
+ Tests of LobbyIndex: finding the fullest lobby that accepts a rank and the distance to the nearest rank window.
+ */
+public class LobbyIndexTest {
+    public static void main(String[] args) {
+        findsFullestAcceptingLobby();
+        distanceToNearestWindow();
+        System.out.println("LobbyIndexTest: OK");
+    }
+
+    private static Lobby[] lobbies(int count) {
+        Lobby[] lobbies = new Lobby[count];
+        for (int i = 0; i < count; i++)
+            lobbies[i] = new Lobby(i, null);
+        return lobbies;
+    }
+
+    private static void findsFullestAcceptingLobby() {
+        Lobby[] lobbies = lobbies(3);
+        LobbyIndex index = new LobbyIndex(lobbies, 100);
+        index.open(lobbies[0], 0, 100);
+        index.open(lobbies[1], 50, 150);
+        index.join(lobbies[1]);
+        check(index.find(75) == lobbies[1], "the fullest accepting lobby must be found");
+        check(index.find(10) == lobbies[0], "only an accepting lobby may be found");
+        check(index.find(300) == null, "no lobby accepts a far rank");
+        check(index.find(160, 10) == lobbies[1], "the tolerance must extend the window");
+        check(index.firstOpen() == lobbies[2], "the last lobby is the only open one");
+        index.start(lobbies[1]);
+        check(index.find(120) == null, "a running lobby must not be found");
+    }
+
+    private static void distanceToNearestWindow() {
+        Lobby[] lobbies = lobbies(3);
+        LobbyIndex index = new LobbyIndex(lobbies, 100);
+        check(index.distance(500) == Integer.MAX_VALUE, "no filling lobby means no distance");
+        index.open(lobbies[0], 100, 200);
+        index.open(lobbies[1], 1000, 1100);
+        check(index.distance(150) == 0, "a rank inside a window has no distance");
+        check(index.distance(230) == 30, "the distance to the window below: " + index.distance(230));
+        check(index.distance(90) == 10, "the distance to the window above in the same bucket: " + index.distance(90));
+        check(index.distance(960) == 40, "the nearest window is above: " + index.distance(960));
+        check(index.distance(5000) == 3900, "far above every window: " + index.distance(5000));
+        index.widen(lobbies[0], 25);
+        check(index.distance(230) == 5, "a widened window is nearer: " + index.distance(230));
+        index.start(lobbies[0]);
+        check(index.distance(230) == 770, "a running lobby no longer counts: " + index.distance(230));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
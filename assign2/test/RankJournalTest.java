@@ -0,0 +1,149 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ Tests of RankJournal: recovery of the changes, of a journal with a torn tail and of a compacted journal, and the legacy import.
+ */
+public class RankJournalTest {
+    public static void main(String[] args) throws Exception {
+        recoversChanges();
+        truncatesTornTail();
+        compactsLargeJournal();
+        importsLegacyFile();
+        System.out.println("RankJournalTest: OK");
+    }
+
+    private static void recoversChanges() throws Exception {
+        Path directory = Files.createTempDirectory("ranks");
+        try {
+            RankJournal journal = open(directory);
+            journal.put("alice", 500);
+            journal.put("bob", 500);
+            check(journal.add("alice", 10) == 510, "add() must return the new rank");
+            journal.add("bob", -20);
+            journal.put("alice", 700);
+            check(journal.getRanks().get("alice", 0) == 700, "the ranks must include the changes before they are synced");
+            awaitDurable(journal);
+            journal.close();
+
+            RankJournal recovered = open(directory);
+            check(recovered.getRanks().get("alice", 0) == 700, "put() must be recovered as the rank it set");
+            check(recovered.getRanks().get("bob", 0) == 480, "add() must be recovered");
+            check(recovered.getRanks().size() == 2, "only the changed players must be recovered");
+            recovered.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void truncatesTornTail() throws Exception {
+        Path directory = Files.createTempDirectory("ranks");
+        try {
+            RankJournal journal = open(directory);
+            journal.put("alice", 500);
+            journal.add("alice", 25);
+            awaitDurable(journal);
+            journal.close();
+
+            // a crash in the middle of the next record leaves part of it at the end of the journal
+            Path journalFile = directory.resolve("ranks-0.journal");
+            long valid = Files.size(journalFile);
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] {0, 5, 'a', 'l', 'i'}));
+            }
+
+            RankJournal recovered = open(directory);
+            check(recovered.getRanks().get("alice", 0) == 525, "the complete records must be recovered");
+            check(Files.size(journalFile) == valid, "the torn tail must be truncated");
+            recovered.add("alice", 5);
+            awaitDurable(recovered);
+            recovered.close();
+
+            RankJournal again = open(directory);
+            check(again.getRanks().get("alice", 0) == 530, "changes appended after the truncation must be recovered");
+            again.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void compactsLargeJournal() throws Exception {
+        Path directory = Files.createTempDirectory("ranks");
+        try {
+            RankJournal journal = open(directory);
+            String name = "x".repeat(4000);
+            // each record takes about 4 KB, so this fills more than the 4 MB that trigger a compaction
+            for (int i = 0; i < 1100; i++) {
+                journal.add(name, 1);
+                if (i % 100 == 0)
+                    awaitDurable(journal);
+            }
+            journal.add("bob", 7);
+            awaitDurable(journal);
+            journal.add("bob", 1);
+            awaitDurable(journal);
+            journal.close();
+
+            check(Files.exists(directory.resolve("ranks.snapshot")), "the journal must be compacted into a snapshot");
+            check(!Files.exists(directory.resolve("ranks-0.journal")), "the compacted journal must be deleted");
+
+            RankJournal recovered = open(directory);
+            check(recovered.getRanks().get(name, 0) == 1100, "the compacted ranks must be recovered: " + recovered.getRanks().get(name, 0));
+            check(recovered.getRanks().get("bob", 0) == 8, "the changes after the snapshot must be recovered");
+            recovered.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void importsLegacyFile() throws Exception {
+        Path directory = Files.createTempDirectory("ranks");
+        try {
+            Files.writeString(directory.resolve("ranks.txt"), "alice:510\nbob:480\n");
+            RankJournal journal = open(directory);
+            check(journal.getRanks().get("alice", 0) == 510 && journal.getRanks().get("bob", 0) == 480, "the legacy ranks must be imported");
+            journal.add("bob", 10);
+            awaitDurable(journal);
+            journal.close();
+
+            // the legacy file is only imported once
+            Files.writeString(directory.resolve("ranks.txt"), "alice:0\n");
+            RankJournal recovered = open(directory);
+            check(recovered.getRanks().get("alice", 0) == 510, "the legacy file must not be imported again");
+            check(recovered.getRanks().get("bob", 0) == 490, "the changes after the import must be recovered");
+            recovered.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static RankJournal open(Path directory) throws IOException {
+        return new RankJournal(directory.resolve("ranks").toString(), directory.resolve("ranks.txt").toString());
+    }
+
+    private static void awaitDurable(RankJournal journal) throws InterruptedException {
+        CountDownLatch synced = new CountDownLatch(1);
+        journal.whenDurable(synced::countDown);
+        check(synced.await(5, TimeUnit.SECONDS), "the changes must be synced");
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
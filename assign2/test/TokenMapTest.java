@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ Tests of TokenMap: removals in colliding probe runs (backward-shift deletion) and random operations checked against a HashMap.
+ */
+public class TokenMapTest {
+    public static void main(String[] args) {
+        removesInsideProbeRuns();
+        matchesHashMap();
+        System.out.println("TokenMapTest: OK");
+    }
+
+    private static void removesInsideProbeRuns() {
+        // 12 tokens fill the initial 16 slots to their load limit, so the probe runs are long and often wrap around the end of the table
+        Random random = new Random(42);
+        for (int round = 0; round < 1000; round++) {
+            TokenMap<String> map = new TokenMap<>();
+            List<long[]> keys = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                long[] key = {random.nextLong(), random.nextLong()};
+                keys.add(key);
+                check(map.put(key[0], key[1], "v" + i) == null, "a new token must have no previous value");
+            }
+            List<long[]> remaining = new ArrayList<>(keys);
+            while (!remaining.isEmpty()) {
+                long[] key = remaining.remove(random.nextInt(remaining.size()));
+                check(("v" + keys.indexOf(key)).equals(map.remove(key[0], key[1])), "remove() must return the value of the token");
+                check(map.get(key[0], key[1]) == null, "a removed token must not be found");
+                for (long[] other : remaining)
+                    check(("v" + keys.indexOf(other)).equals(map.get(other[0], other[1])), "after a removal, the other tokens must still be found");
+                check(map.size() == remaining.size(), "the size must count the remaining tokens");
+            }
+        }
+    }
+
+    private static void matchesHashMap() {
+        Random random = new Random(7);
+        TokenMap<Integer> map = new TokenMap<>();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            // a small key space, so that puts, gets and removes keep hitting the same tokens while the map fills and empties
+            long high = random.nextInt(64);
+            long low = random.nextInt(64);
+            String key = high + ":" + low;
+            switch (random.nextInt(3)) {
+                case 0 -> check(eq(map.put(high, low, i), expected.put(key, i)), "put() must match a HashMap at step " + i);
+                case 1 -> check(eq(map.remove(high, low), expected.remove(key)), "remove() must match a HashMap at step " + i);
+                default -> check(eq(map.get(high, low), expected.get(key)), "get() must match a HashMap at step " + i);
+            }
+            check(map.size() == expected.size(), "the size must match a HashMap at step " + i);
+        }
+    }
+
+    private static boolean eq(Integer a, Integer b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
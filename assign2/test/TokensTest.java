@@ -0,0 +1,50 @@
+import java.util.Random;
+
+/**
+ Tests of Tokens: the round trip between the two longs and the protocol form, and the validation of received tokens.
+ */
+public class TokensTest {
+    public static void main(String[] args) {
+        roundTrips();
+        acceptsOnlyLowercaseAsciiHex();
+        System.out.println("TokensTest: OK");
+    }
+
+    private static void roundTrips() {
+        Random random = new Random(42);
+        long[] samples = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE, 0x0123456789abcdefL};
+        for (long high : samples) {
+            for (long low : samples)
+                checkRoundTrip(high, low);
+        }
+        for (int i = 0; i < 1000; i++)
+            checkRoundTrip(random.nextLong(), random.nextLong());
+        check(Tokens.encode(0x0123456789abcdefL, -1).equals("0123456789abcdefffffffffffffffff"), "the token must be 32 lowercase hexadecimal digits");
+    }
+
+    private static void checkRoundTrip(long high, long low) {
+        String token = Tokens.encode(high, low);
+        check(Tokens.isValid(token), "an encoded token must be valid: " + token);
+        check(Tokens.high(token) == high && Tokens.low(token) == low, "a token must decode to the longs it was encoded from: " + token);
+    }
+
+    private static void acceptsOnlyLowercaseAsciiHex() {
+        String valid = "0123456789abcdef0123456789abcdef";
+        check(Tokens.isValid(valid), "lowercase hexadecimal digits must be accepted");
+        check(!Tokens.isValid(null), "null must be rejected");
+        check(!Tokens.isValid(valid.substring(1)), "a shorter token must be rejected");
+        check(!Tokens.isValid(valid + "0"), "a longer token must be rejected");
+        check(!Tokens.isValid(valid.replace('a', 'g')), "non-hexadecimal letters must be rejected");
+        check(!Tokens.isValid(valid.replace('a', 'A')), "uppercase digits, which encode() never writes, must be rejected");
+        // digits that Character.digit() accepts outside ASCII: fullwidth, Arabic-Indic and Devanagari
+        check(!Tokens.isValid(valid.replace('1', '\uFF11')), "fullwidth digits must be rejected");
+        check(!Tokens.isValid(valid.replace('2', '\u0662')), "Arabic-Indic digits must be rejected");
+        check(!Tokens.isValid(valid.replace('3', '\u0969')), "Devanagari digits must be rejected");
+        check(!Tokens.isValid(valid.replace('b', '\uFF42')), "fullwidth letters must be rejected");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
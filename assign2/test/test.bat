@@ -0,0 +1,11 @@
+del *.class /s /q
+javac -d . ../src/*.java *.java
+java -cp . BatchMatchmakerTest
+java -cp . HashedTimerWheelTest
+java -cp . LobbyIndexTest
+java -cp . RankJournalTest
+java -cp . FrameCodecTest
+java -cp . TokensTest
+java -cp . TokenMapTest
+java -cp . GameInboxTest
+java -cp . BloomFilterTest